@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
+import org.primaresearch.dla.page.layout.physical.ContentIterator;
+import org.primaresearch.dla.page.layout.physical.ContentObject;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+import org.primaresearch.dla.page.layout.physical.text.TextObject;
+import org.primaresearch.maths.geometry.Rect;
+
+/**
+ * Input files for the benchmarks. The PAGE XML is read from the data folder (<code>benchmark/data</code>
+ * or the folder given by the system property <code>primapdf.benchmark.data</code>), the page images
+ * are rendered from the PAGE XML into a temporary folder.
+ *
+ */
+class BenchmarkFixtures {
+	/** PAGE XML with text regions, text lines, words and glyphs (2000 x 2800 pixels) */
+	static final String PAGE_XML = "page.xml";
+
+	/**
+	 * Folder with the benchmark input files
+	 */
+	static File getDataFolder() {
+		return new File(System.getProperty("primapdf.benchmark.data", "benchmark/data"));
+	}
+
+	/**
+	 * Path of the PAGE XML fixture
+	 */
+	static String getPageXml() {
+		return new File(getDataFolder(), PAGE_XML).getPath();
+	}
+
+	/**
+	 * Reads the PAGE XML fixture
+	 */
+	static Page loadPage() throws Exception {
+		Page page = PageXmlInputOutput.readPage(getPageXml());
+		if (page == null)
+			throw new IOException("Could not load benchmark page: " + getPageXml());
+		return page;
+	}
+
+	/**
+	 * Creates a temporary folder for images and PDFs (deleted on exit)
+	 */
+	static File createTempFolder() throws IOException {
+		File folder = File.createTempFile("primapdf-benchmark", "");
+		if (!folder.delete() || !folder.mkdir())
+			throw new IOException("Could not create temporary folder: " + folder);
+		folder.deleteOnExit();
+		return folder;
+	}
+
+	/**
+	 * Renders the words of the given page into an image file (black text on white)
+	 * @param page Page with word objects
+	 * @param folder Target folder
+	 * @param format Image format (e.g. "png" or "jpg")
+	 * @param imageType BufferedImage type (e.g. <code>TYPE_BYTE_GRAY</code>)
+	 * @return Path of the image file
+	 */
+	static String createImage(Page page, File folder, String format, int imageType) throws IOException {
+		BufferedImage image = new BufferedImage(page.getLayout().getWidth(), page.getLayout().getHeight(), imageType);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, image.getWidth(), image.getHeight());
+			g.setColor(Color.BLACK);
+			for (ContentIterator it = page.getLayout().iterator(LowLevelTextType.Word); it.hasNext(); ) {
+				ContentObject obj = it.next();
+				if (!(obj instanceof TextObject) || ((TextObject)obj).getText() == null)
+					continue;
+				Rect box = obj.getCoords().getBoundingBox();
+				g.setFont(new Font(Font.SERIF, Font.PLAIN, Math.max(1, box.getHeight())));
+				g.drawString(((TextObject)obj).getText(), box.left, box.bottom - box.getHeight() / 4);
+			}
+		} finally {
+			g.dispose();
+		}
+		File file = new File(folder, "page." + format);
+		if (!ImageIO.write(image, format, file))
+			throw new IOException("No image writer for " + format);
+		file.deleteOnExit();
+		return file.getPath();
+	}
+}
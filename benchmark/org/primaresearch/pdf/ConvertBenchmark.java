@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+
+/**
+ * End-to-end conversion (word text, region and word outlines, PNG image):
+ * one page and a document of many pages (the PAGE XML is parsed for each page).
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConvertBenchmark {
+
+	/**
+	 * Converter and fixture page with its image
+	 */
+	@State(Scope.Benchmark)
+	public static class PageState {
+		PageToPdfConverter converter;
+		Page page;
+		String imageFile;
+		String targetPdf;
+
+		@Setup
+		public void setup() throws Exception {
+			page = BenchmarkFixtures.loadPage();
+			File folder = BenchmarkFixtures.createTempFolder();
+			imageFile = BenchmarkFixtures.createImage(page, folder, "png", BufferedImage.TYPE_BYTE_BINARY);
+			File pdf = new File(folder, "output.pdf");
+			pdf.deleteOnExit();
+			targetPdf = pdf.getPath();
+			converter = new PageToPdfConverter(LowLevelTextType.Word, true, false, true, false);
+			//Same page repeated (no image deduplication, every page writes its image)
+			converter.setImageDeduplication(false);
+		}
+	}
+
+	/**
+	 * Inputs for a document (the fixture page repeated)
+	 */
+	@State(Scope.Benchmark)
+	public static class DocumentState {
+		/** Number of pages of the document */
+		@Param({ "50" })
+		public int pageCount;
+
+		/** Worker threads preparing the pages */
+		@Param({ "1", "4" })
+		public int threads;
+
+		List<PageInput> inputs;
+
+		@Setup
+		public void setup(PageState pageState) {
+			inputs = new ArrayList<PageInput>(pageCount);
+			for (int i=0; i<pageCount; i++)
+				inputs.add(new PageInput(BenchmarkFixtures.getPageXml(), pageState.imageFile));
+		}
+	}
+
+	@Benchmark
+	public long convertPage(PageState state) {
+		state.converter.convert(state.page, state.imageFile, state.targetPdf);
+		return new File(state.targetPdf).length();
+	}
+
+	@Benchmark
+	public int convertDocument(PageState state, DocumentState document) {
+		state.converter.setWorkerThreads(document.threads);
+		return state.converter.convert(document.inputs.iterator(), state.targetPdf);
+	}
+}
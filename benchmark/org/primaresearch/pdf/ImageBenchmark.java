@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.primaresearch.dla.page.Page;
+
+/**
+ * Page image layer: loading (or probing for passthrough) and recompression of the page image.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageBenchmark {
+
+	/** Image format: bitonal PNG (decoded by iText) or greyscale JPEG (passthrough) */
+	@Param({ "png", "jpg" })
+	public String format;
+
+	/** Image profile (see <code>ImageProfile.getProfile</code>) */
+	@Param({ "original", "ebook" })
+	public String profile;
+
+	private PageToPdfConverter converter;
+	private Page page;
+	private String imageFile;
+
+	@Setup
+	public void setup() throws Exception {
+		page = BenchmarkFixtures.loadPage();
+		File folder = BenchmarkFixtures.createTempFolder();
+		imageFile = BenchmarkFixtures.createImage(page, folder, format,
+								"png".equals(format) ? BufferedImage.TYPE_BYTE_BINARY : BufferedImage.TYPE_BYTE_GRAY);
+		converter = new PageToPdfConverter(null, false, false, false, false);
+		converter.setImageProfile(ImageProfile.getProfile(profile));
+	}
+
+	@Benchmark
+	public PreparedPage addImage() throws Exception {
+		PreparedPage prepared = new PreparedPage(page.getLayout().getWidth(), page.getLayout().getHeight());
+		converter.addImage(imageFile, 0, prepared);
+		return prepared;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+
+/**
+ * Conversion of a large synthetic document (see <code>SyntheticDocumentGenerator</code>), glyph text
+ * and glyph outlines. The defaults give 10,000 glyphs per page; use e.g. <code>-p pageCount=5000</code>
+ * for a full-size run.
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LargeDocumentBenchmark {
+
+	@Param({ "200" })
+	public int pageCount;
+
+	@Param({ "10" })
+	public int glyphsPerWord;
+
+	/** Image format (TIFF, PNG or JPEG) */
+	@Param({ "TIFF" })
+	public String imageFormat;
+
+	@Param({ "4" })
+	public int threads;
+
+	private PageToPdfConverter converter;
+	private List<PageInput> inputs;
+	private String targetPdf;
+
+	@Setup
+	public void setup() throws Exception {
+		File folder = BenchmarkFixtures.createTempFolder();
+		SyntheticDocumentGenerator generator = new SyntheticDocumentGenerator();
+		generator.setLinesPerRegion(25);
+		generator.setWordsPerLine(10);
+		generator.setGlyphsPerWord(glyphsPerWord);
+		generator.setScripts(SyntheticDocumentGenerator.Script.LATIN, SyntheticDocumentGenerator.Script.GREEK);
+		generator.setImageFormat(SyntheticDocumentGenerator.ImageFormat.valueOf(imageFormat));
+		inputs = generator.generate(folder, pageCount);
+		for (PageInput input : inputs) {
+			new File(input.getXmlFile()).deleteOnExit();
+			new File(input.getImageFile()).deleteOnExit();
+		}
+		File pdf = new File(folder, "output.pdf");
+		pdf.deleteOnExit();
+		targetPdf = pdf.getPath();
+
+		converter = new PageToPdfConverter(LowLevelTextType.Glyph, false, false, false, true);
+		converter.setWorkerThreads(threads);
+	}
+
+	@Benchmark
+	public int convertDocument() {
+		return converter.convert(inputs.iterator(), targetPdf);
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Iterator;
+import java.util.List;
+
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+
+/**
+ * Heap in use while converting a large document: converts a synthetic document (see <code>SyntheticDocumentGenerator</code>)
+ * of the given number of pages and prints the heap that is still in use after a full garbage collection at regular
+ * intervals. The pages cycle through a smaller set of generated PAGE XML files and images (the generated images
+ * have the same layout, so they are deduplicated).<br>
+ * The heap should stay flat as the page count grows; run with a small maximum heap (e.g. <code>-Xmx64m</code>)
+ * to check that a document fits. Not a JMH benchmark (JMH measures time and allocation, not retained memory).
+ *
+ */
+public class LargeDocumentHeapBenchmark {
+
+	/**
+	 * Command line entry point (see <code>showUsage()</code>)
+	 */
+	public static void main(String[] args) {
+		try {
+			int pages = 20000;
+			int unique = 100;
+			int interval = 0;
+			int threads = 1;
+			boolean largeDocumentMode = false;
+			String folder = null;
+			for (int i=0; i<args.length; i++) {
+				if ("-pages".equals(args[i]))
+					pages = Integer.parseInt(args[++i]);
+				else if ("-unique".equals(args[i]))
+					unique = Integer.parseInt(args[++i]);
+				else if ("-interval".equals(args[i]))
+					interval = Integer.parseInt(args[++i]);
+				else if ("-threads".equals(args[i]))
+					threads = Integer.parseInt(args[++i]);
+				else if ("-large-document".equals(args[i]))
+					largeDocumentMode = true;
+				else if ("-out".equals(args[i]))
+					folder = args[++i];
+				else {
+					showUsage();
+					return;
+				}
+			}
+			if (interval <= 0)
+				interval = Math.max(1, pages / 10);
+
+			//Input (small pages, so that the run is dominated by the number of pages)
+			File dir = folder != null ? new File(folder) : BenchmarkFixtures.createTempFolder();
+			SyntheticDocumentGenerator generator = new SyntheticDocumentGenerator();
+			generator.setPageSize(1240, 1754);
+			generator.setResolution(150);
+			generator.setLinesPerRegion(10);
+			generator.setWordsPerLine(8);
+			generator.setGlyphsPerWord(5);
+			final List<PageInput> inputs = generator.generate(dir, Math.min(unique, pages));
+			if (folder == null) {
+				for (PageInput input : inputs) {
+					new File(input.getXmlFile()).deleteOnExit();
+					new File(input.getImageFile()).deleteOnExit();
+				}
+			}
+			final int pageCount = pages;
+			Iterator<PageInput> document = new Iterator<PageInput>() {
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return index < pageCount;
+				}
+
+				@Override
+				public PageInput next() {
+					return inputs.get(index++ % inputs.size());
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+
+			//Conversion (glyph text and region outlines)
+			PageToPdfConverter converter = new PageToPdfConverter(LowLevelTextType.Glyph, true, false, false, false);
+			converter.setStreamingXmlReader(true);
+			converter.setLargeDocumentMode(largeDocumentMode);
+			converter.setWorkerThreads(threads);
+			HeapListener listener = new HeapListener(interval);
+			converter.setConversionListener(listener);
+			File pdf = new File(dir, "output.pdf");
+			pdf.deleteOnExit();
+
+			System.out.println("pages,heap_kb,seconds");
+			long start = System.nanoTime();
+			int converted = converter.convert(document, pdf.getPath());
+			System.out.println("Converted " + converted + " pages (" + inputs.size() + " generated) in "
+								+ (System.nanoTime() - start) / 1000000000L + " s, PDF size " + pdf.length() / 1024 / 1024 + " MB");
+			if (listener.measurements > 2)
+				System.out.println("Heap growth per page: " + Math.round(listener.getGrowthPerPage()) + " bytes (from the second measurement)");
+		} catch (Exception exc) {
+			exc.printStackTrace();
+		}
+	}
+
+	/**
+	 * Measures the heap in use after every n pages
+	 */
+	private static class HeapListener implements ConversionListener {
+		private MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		private int interval;
+		private long start = System.nanoTime();
+		int measurements;
+		//Sums for the least squares fit (the first measurement is left out, caches are still filling)
+		private double n, sumX, sumY, sumXX, sumXY;
+
+		HeapListener(int interval) {
+			this.interval = interval;
+		}
+
+		@Override
+		public void pageConverted(PageStatistics statistics) {
+			if (statistics.getPageNumber() % interval != 0)
+				return;
+			memory.gc();
+			long heap = memory.getHeapMemoryUsage().getUsed();
+			if (++measurements > 1) {
+				double x = statistics.getPageNumber();
+				n++;
+				sumX += x;
+				sumY += heap;
+				sumXX += x * x;
+				sumXY += x * heap;
+			}
+			System.out.println(statistics.getPageNumber() + "," + heap / 1024 + "," + (System.nanoTime() - start) / 1000000000L);
+		}
+
+		/**
+		 * Slope of the heap in use over the page count (least squares)
+		 */
+		double getGrowthPerPage() {
+			return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+		}
+
+		@Override
+		public void pageFailed(String xmlFile, Throwable error) {
+			System.err.println("Page failed: " + xmlFile + " (" + error + ")");
+		}
+	}
+
+	private static void showUsage() {
+		System.out.println("Heap in use while converting a large synthetic document");
+		System.out.println("");
+		System.out.println("Arguments:");
+		System.out.println("");
+		System.out.println("  -pages <number>         Optional. Number of pages. Default: 20000");
+		System.out.println("  -unique <number>        Optional. Number of generated pages. Default: 100");
+		System.out.println("  -interval <number>      Optional. Pages between measurements. Default: pages / 10");
+		System.out.println("  -threads <number>       Optional. Worker threads. Default: 1");
+		System.out.println("  -large-document         Optional. Large-document mode of the converter");
+		System.out.println("  -out <folder>           Optional. Folder for the generated pages and the PDF");
+		System.out.println("                          (kept). Default: temporary folder");
+	}
+}
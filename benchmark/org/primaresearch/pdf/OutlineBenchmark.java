@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+
+import com.itextpdf.text.pdf.PdfContentByte;
+
+/**
+ * Outline layers: polygons of all four levels (regions, text lines, words, glyphs)
+ * and the path operators for the content stream.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutlineBenchmark {
+
+	private PageToPdfConverter converter;
+	private Page page;
+	private PreparedPage prepared;
+	private PdfContentByte canvas;
+
+	@Setup
+	public void setup() throws Exception {
+		page = BenchmarkFixtures.loadPage();
+		converter = new PageToPdfConverter(null, true, true, true, true);
+		prepared = addOutlines();
+		//Content stream without a writer (only collects the operators)
+		canvas = new PdfContentByte(null);
+	}
+
+	@Benchmark
+	public PreparedPage addOutlines() {
+		PreparedPage result = new PreparedPage(page.getLayout().getWidth(), page.getLayout().getHeight());
+		converter.addOutlines(result, page, null, OutputDocument.REGION_OUTLINES);
+		converter.addOutlines(result, page, LowLevelTextType.TextLine, OutputDocument.TEXT_LINE_OUTLINES);
+		converter.addOutlines(result, page, LowLevelTextType.Word, OutputDocument.WORD_OUTLINES);
+		converter.addOutlines(result, page, LowLevelTextType.Glyph, OutputDocument.GLYPH_OUTLINES);
+		return result;
+	}
+
+	@Benchmark
+	public int drawOutlines() {
+		canvas.reset();
+		for (PreparedPage.OutlineGroup group : prepared.outlines)
+			converter.drawOutlines(group, canvas);
+		return canvas.getInternalBuffer().size();
+	}
+}
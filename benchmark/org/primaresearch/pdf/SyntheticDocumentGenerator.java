@@ -0,0 +1,487 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import com.itextpdf.text.pdf.codec.CCITTG4Encoder;
+
+/**
+ * Generates synthetic PAGE XML files and matching page images of configurable size for scale tests.<br>
+ * The text regions are laid out in a grid, each with text lines, words and glyphs. Each page is generated
+ * from its own random seed, so the output only depends on the settings and not on the order of generation.
+ *
+ */
+public class SyntheticDocumentGenerator {
+
+	/**
+	 * Unicode script for the generated words (range of letters)
+	 */
+	public enum Script {
+		LATIN(0x61, 0x7A),
+		GREEK(0x3B1, 0x3C9),
+		CYRILLIC(0x430, 0x44F),
+		ARABIC(0x627, 0x64A),
+		HEBREW(0x5D0, 0x5EA),
+		DEVANAGARI(0x915, 0x939),
+		CJK(0x4E00, 0x9FA5);
+
+		private int first;
+		private int last;
+
+		private Script(int first, int last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		char randomLetter(Random random) {
+			return (char)(first + random.nextInt(last - first + 1));
+		}
+	}
+
+	/**
+	 * Format of the page images
+	 */
+	public enum ImageFormat {
+		/** Bitonal TIFF (CCITT G4) */
+		TIFF("tif"),
+		/** Greyscale PNG */
+		PNG("png"),
+		/** Colour JPEG */
+		JPEG("jpg"),
+		/** No images */
+		NONE(null);
+
+		private String extension;
+
+		private ImageFormat(String extension) {
+			this.extension = extension;
+		}
+	}
+
+	private static final String PAGE_NAMESPACE = "http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15";
+
+	private int pageWidth = 2480;
+	private int pageHeight = 3508;
+	private int resolution = 300;
+	private int regionsPerPage = 4;
+	private int linesPerRegion = 20;
+	private int wordsPerLine = 8;
+	private int glyphsPerWord = 6;
+	private int polygonVertices = 4;
+	private Script[] scripts = new Script[] { Script.LATIN };
+	private ImageFormat imageFormat = ImageFormat.TIFF;
+	private long seed = 1;
+
+	/**
+	 * Generates the given number of pages into the given folder (page_00001.xml, page_00001.tif, ...).
+	 * @param folder Output folder (created if necessary)
+	 * @param pageCount Number of pages
+	 * @return Inputs for the converter (in page order)
+	 */
+	public List<PageInput> generate(File folder, int pageCount) throws IOException {
+		List<PageInput> inputs = new ArrayList<PageInput>(pageCount);
+		for (int i=0; i<pageCount; i++)
+			inputs.add(generatePage(folder, i));
+		return inputs;
+	}
+
+	/**
+	 * Generates one page (PAGE XML and image)
+	 * @param folder Output folder (created if necessary)
+	 * @param pageIndex Index of the page (determines filename and random seed)
+	 * @return Input for the converter
+	 */
+	public PageInput generatePage(File folder, int pageIndex) throws IOException {
+		folder.mkdirs();
+		String name = String.format("page_%05d", pageIndex + 1);
+		File imageFile = new File(folder, name + "." + (imageFormat.extension != null ? imageFormat.extension : "png"));
+		File xmlFile = new File(folder, name + ".xml");
+
+		Random random = new Random(seed * 1000003L + pageIndex);
+		List<int[]> glyphBoxes = new ArrayList<int[]>();
+		writePageXml(xmlFile, imageFile.getName(), name, random, glyphBoxes);
+		if (imageFormat != ImageFormat.NONE)
+			writeImage(imageFile, glyphBoxes);
+		return new PageInput(xmlFile.getPath(), imageFile.getPath());
+	}
+
+	/**
+	 * Number of glyphs per page with the current settings
+	 */
+	public int getGlyphsPerPage() {
+		return regionsPerPage * linesPerRegion * wordsPerLine * glyphsPerWord;
+	}
+
+	/**
+	 * Writes the PAGE XML of one page and collects the glyph bounding boxes (for the image)
+	 */
+	private void writePageXml(File file, String imageFilename, String pageId, Random random, List<int[]> glyphBoxes) throws IOException {
+		Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file), 65536), "UTF-8");
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.write("<PcGts xmlns=\"" + PAGE_NAMESPACE + "\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+					+ " xsi:schemaLocation=\"" + PAGE_NAMESPACE + " " + PAGE_NAMESPACE + "/pagecontent.xsd\" pcGtsId=\"" + pageId + "\">\n");
+			out.write("\t<Metadata>\n\t\t<Creator>PrimaPdf SyntheticDocumentGenerator</Creator>\n");
+			out.write("\t\t<Created>2019-01-01T00:00:00</Created>\n\t\t<LastChange>2019-01-01T00:00:00</LastChange>\n\t</Metadata>\n");
+			out.write("\t<Page imageFilename=\"" + escape(imageFilename) + "\" imageWidth=\"" + pageWidth + "\" imageHeight=\"" + pageHeight + "\">\n");
+
+			//Grid of regions (two columns if there is more than one region)
+			int margin = Math.max(1, pageWidth / 20);
+			int columns = regionsPerPage > 1 ? 2 : 1;
+			int rows = (regionsPerPage + columns - 1) / columns;
+			int gap = margin / 2;
+			int regionWidth = Math.max(1, (pageWidth - 2 * margin - (columns - 1) * gap) / columns);
+			int regionHeight = Math.max(1, (pageHeight - 2 * margin - (rows - 1) * gap) / rows);
+			int lineHeight = Math.max(1, regionHeight / Math.max(1, linesPerRegion));
+			int wordWidth = Math.max(1, regionWidth / Math.max(1, wordsPerLine));
+			int glyphWidth = Math.max(1, (wordWidth * 4 / 5) / Math.max(1, glyphsPerWord));
+
+			StringBuilder regionText = new StringBuilder();
+			StringBuilder lineText = new StringBuilder();
+			StringBuilder wordText = new StringBuilder();
+			for (int r=0; r<regionsPerPage; r++) {
+				int regionLeft = margin + (r % columns) * (regionWidth + gap);
+				int regionTop = margin + (r / columns) * (regionHeight + gap);
+				String regionId = "r" + r;
+				Script script = scripts[random.nextInt(scripts.length)];
+				out.write("\t\t<TextRegion id=\"" + regionId + "\" type=\"paragraph\">\n");
+				writeCoords(out, "\t\t\t", regionLeft, regionTop, regionLeft + regionWidth - 1, regionTop + linesPerRegion * lineHeight - 1, random);
+				regionText.setLength(0);
+				for (int l=0; l<linesPerRegion; l++) {
+					int lineTop = regionTop + l * lineHeight;
+					int lineBottom = lineTop + Math.max(1, lineHeight * 3 / 4) - 1;
+					String lineId = regionId + "_l" + l;
+					out.write("\t\t\t<TextLine id=\"" + lineId + "\">\n");
+					writeCoords(out, "\t\t\t\t", regionLeft, lineTop, regionLeft + regionWidth - 1, lineBottom, random);
+					lineText.setLength(0);
+					for (int w=0; w<wordsPerLine; w++) {
+						int wordLeft = regionLeft + w * wordWidth;
+						String wordId = lineId + "_w" + w;
+						out.write("\t\t\t\t<Word id=\"" + wordId + "\">\n");
+						writeCoords(out, "\t\t\t\t\t", wordLeft, lineTop, wordLeft + glyphsPerWord * glyphWidth - 1, lineBottom, random);
+						wordText.setLength(0);
+						for (int g=0; g<glyphsPerWord; g++) {
+							int glyphLeft = wordLeft + g * glyphWidth;
+							char c = script.randomLetter(random);
+							out.write("\t\t\t\t\t<Glyph id=\"" + wordId + "_g" + g + "\">\n");
+							writeCoords(out, "\t\t\t\t\t\t", glyphLeft, lineTop, glyphLeft + glyphWidth - 1, lineBottom, random);
+							writeTextEquiv(out, "\t\t\t\t\t\t", String.valueOf(c));
+							out.write("\t\t\t\t\t</Glyph>\n");
+							wordText.append(c);
+							glyphBoxes.add(new int[] { glyphLeft, lineTop, glyphLeft + glyphWidth - 1, lineBottom });
+						}
+						writeTextEquiv(out, "\t\t\t\t\t", wordText.toString());
+						out.write("\t\t\t\t</Word>\n");
+						if (w > 0)
+							lineText.append(' ');
+						lineText.append(wordText);
+					}
+					writeTextEquiv(out, "\t\t\t\t", lineText.toString());
+					out.write("\t\t\t</TextLine>\n");
+					if (l > 0)
+						regionText.append('\n');
+					regionText.append(lineText);
+				}
+				writeTextEquiv(out, "\t\t\t", regionText.toString());
+				out.write("\t\t</TextRegion>\n");
+			}
+			out.write("\t</Page>\n</PcGts>\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the outline of the given box with the configured number of vertices
+	 * (the additional points are distributed along the top and bottom edges, with some jitter).
+	 */
+	private void writeCoords(Writer out, String indent, int left, int top, int right, int bottom, Random random) throws IOException {
+		int vertices = Math.max(4, polygonVertices);
+		int topPoints = (vertices + 1) / 2;
+		int bottomPoints = vertices - topPoints;
+		int jitter = Math.max(0, Math.min(8, (bottom - top) / 10));
+		StringBuilder points = new StringBuilder();
+		for (int i=0; i<topPoints; i++) {
+			int x = left + (int)((long)(right - left) * i / (topPoints - 1));
+			int y = top + (i > 0 && i < topPoints - 1 && jitter > 0 ? random.nextInt(jitter + 1) : 0);
+			points.append(x).append(',').append(y).append(' ');
+		}
+		for (int i=0; i<bottomPoints; i++) {
+			int x = right - (int)((long)(right - left) * i / (bottomPoints - 1));
+			int y = bottom - (i > 0 && i < bottomPoints - 1 && jitter > 0 ? random.nextInt(jitter + 1) : 0);
+			points.append(x).append(',').append(y);
+			if (i < bottomPoints - 1)
+				points.append(' ');
+		}
+		out.write(indent + "<Coords points=\"" + points + "\"/>\n");
+	}
+
+	private static void writeTextEquiv(Writer out, String indent, String text) throws IOException {
+		out.write(indent + "<TextEquiv><Unicode>" + escape(text).replace("\n", "&#10;") + "</Unicode></TextEquiv>\n");
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	/**
+	 * Renders the glyphs as dark blocks and writes the image in the configured format
+	 */
+	private void writeImage(File file, List<int[]> glyphBoxes) throws IOException {
+		int type = imageFormat == ImageFormat.JPEG ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_BYTE_GRAY;
+		BufferedImage image = new BufferedImage(pageWidth, pageHeight, type);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(imageFormat == ImageFormat.JPEG ? new Color(245, 238, 220) : Color.WHITE);
+			g.fillRect(0, 0, pageWidth, pageHeight);
+			g.setColor(imageFormat == ImageFormat.JPEG ? new Color(60, 40, 30) : Color.BLACK);
+			for (int[] box : glyphBoxes) {
+				int w = box[2] - box[0] + 1;
+				int h = box[3] - box[1] + 1;
+				//Letter body in the lower two thirds, leaving a gap to the next glyph
+				g.fillRect(box[0] + w / 6, box[1] + h / 3, Math.max(1, w * 2 / 3), Math.max(1, h * 2 / 3));
+			}
+		} finally {
+			g.dispose();
+		}
+		if (imageFormat == ImageFormat.TIFF)
+			writeG4Tiff(image, file);
+		else if (!ImageIO.write(image, imageFormat == ImageFormat.PNG ? "png" : "jpeg", file))
+			throw new IOException("No image writer for " + imageFormat);
+	}
+
+	/**
+	 * Writes a bitonal single-strip TIFF with CCITT G4 compression (black for grey values below 128)
+	 */
+	private void writeG4Tiff(BufferedImage grey, File file) throws IOException {
+		int w = grey.getWidth();
+		int h = grey.getHeight();
+		int stride = (w + 7) / 8;
+		byte[] pixels = ((DataBufferByte)grey.getRaster().getDataBuffer()).getData();
+		byte[] data = new byte[stride * h];
+		for (int y=0; y<h; y++) {
+			for (int x=0; x<w; x++) {
+				if ((pixels[y * w + x] & 0xFF) < 128) //Black = 1
+					data[y * stride + (x >> 3)] |= (byte)(0x80 >> (x & 7));
+			}
+		}
+		byte[] g4 = CCITTG4Encoder.compress(data, w, h);
+
+		//Header, image data, resolution values, IFD (big-endian)
+		int dataOffset = 8;
+		int resolutionOffset = dataOffset + g4.length + (g4.length & 1);
+		int ifdOffset = resolutionOffset + 16;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		try {
+			out.writeBytes("MM");
+			out.writeShort(42);
+			out.writeInt(ifdOffset);
+			out.write(g4);
+			if ((g4.length & 1) != 0)
+				out.write(0);
+			out.writeInt(resolution);
+			out.writeInt(1);
+			out.writeInt(resolution);
+			out.writeInt(1);
+			int[][] tags = new int[][] {
+				//Tag, type (3 = short, 4 = long, 5 = rational), value
+				{ 256, 4, w },						//ImageWidth
+				{ 257, 4, h },						//ImageLength
+				{ 258, 3, 1 },						//BitsPerSample
+				{ 259, 3, 4 },						//Compression (CCITT G4)
+				{ 262, 3, 0 },						//PhotometricInterpretation (WhiteIsZero)
+				{ 273, 4, dataOffset },				//StripOffsets
+				{ 277, 3, 1 },						//SamplesPerPixel
+				{ 278, 4, h },						//RowsPerStrip
+				{ 279, 4, g4.length },				//StripByteCounts
+				{ 282, 5, resolutionOffset },		//XResolution
+				{ 283, 5, resolutionOffset + 8 },	//YResolution
+				{ 296, 3, 2 }						//ResolutionUnit (inch)
+			};
+			out.writeShort(tags.length);
+			for (int[] tag : tags) {
+				out.writeShort(tag[0]);
+				out.writeShort(tag[1]);
+				out.writeInt(1);
+				if (tag[1] == 3) {
+					out.writeShort(tag[2]);
+					out.writeShort(0);
+				} else
+					out.writeInt(tag[2]);
+			}
+			out.writeInt(0);
+		} finally {
+			out.close();
+		}
+	}
+
+	public void setPageSize(int width, int height) {
+		this.pageWidth = width;
+		this.pageHeight = height;
+	}
+
+	/**
+	 * Resolution of the images in DPI (stored in the TIFF files)
+	 */
+	public void setResolution(int resolution) {
+		this.resolution = resolution;
+	}
+
+	public void setRegionsPerPage(int regionsPerPage) {
+		this.regionsPerPage = regionsPerPage;
+	}
+
+	public void setLinesPerRegion(int linesPerRegion) {
+		this.linesPerRegion = linesPerRegion;
+	}
+
+	public void setWordsPerLine(int wordsPerLine) {
+		this.wordsPerLine = wordsPerLine;
+	}
+
+	/**
+	 * Glyph density (number of glyphs per word)
+	 */
+	public void setGlyphsPerWord(int glyphsPerWord) {
+		this.glyphsPerWord = glyphsPerWord;
+	}
+
+	/**
+	 * Number of vertices of each polygon (regions, lines, words, glyphs; minimum 4)
+	 */
+	public void setPolygonVertices(int polygonVertices) {
+		this.polygonVertices = polygonVertices;
+	}
+
+	/**
+	 * Scripts for the text (each region uses one of the given scripts, chosen at random)
+	 */
+	public void setScripts(Script... scripts) {
+		this.scripts = scripts;
+	}
+
+	public void setImageFormat(ImageFormat imageFormat) {
+		this.imageFormat = imageFormat;
+	}
+
+	/**
+	 * Random seed (the same seed and settings generate the same files)
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Command line entry point (see <code>showUsage()</code>)
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			showUsage();
+			return;
+		}
+		try {
+			SyntheticDocumentGenerator generator = new SyntheticDocumentGenerator();
+			String folder = null;
+			int pages = 1;
+			for (int i=0; i<args.length; i++) {
+				if ("-out".equals(args[i]))
+					folder = args[++i];
+				else if ("-pages".equals(args[i]))
+					pages = Integer.parseInt(args[++i]);
+				else if ("-size".equals(args[i])) {
+					String[] size = args[++i].toLowerCase().split("x");
+					generator.setPageSize(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+				}
+				else if ("-dpi".equals(args[i]))
+					generator.setResolution(Integer.parseInt(args[++i]));
+				else if ("-regions".equals(args[i]))
+					generator.setRegionsPerPage(Integer.parseInt(args[++i]));
+				else if ("-lines".equals(args[i]))
+					generator.setLinesPerRegion(Integer.parseInt(args[++i]));
+				else if ("-words".equals(args[i]))
+					generator.setWordsPerLine(Integer.parseInt(args[++i]));
+				else if ("-glyphs".equals(args[i]))
+					generator.setGlyphsPerWord(Integer.parseInt(args[++i]));
+				else if ("-vertices".equals(args[i]))
+					generator.setPolygonVertices(Integer.parseInt(args[++i]));
+				else if ("-scripts".equals(args[i])) {
+					String[] names = args[++i].split(",");
+					Script[] scripts = new Script[names.length];
+					for (int s=0; s<names.length; s++)
+						scripts[s] = Script.valueOf(names[s].trim().toUpperCase());
+					generator.setScripts(scripts);
+				}
+				else if ("-image".equals(args[i]))
+					generator.setImageFormat(ImageFormat.valueOf(args[++i].toUpperCase()));
+				else if ("-seed".equals(args[i]))
+					generator.setSeed(Long.parseLong(args[++i]));
+				else
+					System.err.println("Unknown argument: "+args[i]);
+			}
+			if (folder == null) {
+				System.err.println("Output folder not specified!");
+				return;
+			}
+			long start = System.currentTimeMillis();
+			generator.generate(new File(folder), pages);
+			System.out.println("Generated " + pages + " pages with " + generator.getGlyphsPerPage() + " glyphs each in "
+								+ (System.currentTimeMillis() - start) + " ms");
+		} catch (Exception exc) {
+			exc.printStackTrace();
+		}
+	}
+
+	private static void showUsage() {
+		System.out.println("Synthetic PAGE XML and image generator");
+		System.out.println("");
+		System.out.println("Arguments:");
+		System.out.println("");
+		System.out.println("  -out <folder>           Output folder (page_00001.xml, page_00001.tif, ...)");
+		System.out.println("  -pages <number>         Optional. Number of pages. Default: 1");
+		System.out.println("  -size <width>x<height>  Optional. Page size in pixels. Default: 2480x3508");
+		System.out.println("  -dpi <number>           Optional. Image resolution. Default: 300");
+		System.out.println("  -regions <number>       Optional. Text regions per page. Default: 4");
+		System.out.println("  -lines <number>         Optional. Text lines per region. Default: 20");
+		System.out.println("  -words <number>         Optional. Words per text line. Default: 8");
+		System.out.println("  -glyphs <number>        Optional. Glyphs per word. Default: 6");
+		System.out.println("  -vertices <number>      Optional. Vertices per polygon (min. 4). Default: 4");
+		System.out.println("  -scripts <list>         Optional. Comma-separated scripts, one per region at");
+		System.out.println("                          random: latin, greek, cyrillic, arabic, hebrew,");
+		System.out.println("                          devanagari, cjk. Default: latin");
+		System.out.println("  -image <tiff|png|jpeg|none>  Optional. Bitonal G4 TIFF, greyscale PNG or");
+		System.out.println("                          colour JPEG. Default: tiff");
+		System.out.println("  -seed <number>          Optional. Random seed. Default: 1");
+		System.out.println("");
+		System.out.println("Example (10,000 glyphs per page):");
+		System.out.println("  -out synthetic -pages 5000 -regions 4 -lines 25 -words 10 -glyphs 10");
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.physical.ContentIterator;
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+import org.primaresearch.dla.page.layout.physical.text.impl.TextRegion;
+import org.primaresearch.maths.geometry.Rect;
+
+/**
+ * Hidden text layer: font size fitting, splitting of text regions into lines and
+ * the text of a whole page for each text level.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBenchmark {
+
+	/**
+	 * Converter with text lines and the first text region with more than one line
+	 */
+	@State(Scope.Benchmark)
+	public static class RegionState {
+		PageToPdfConverter converter;
+		TextRegion region;
+		String lineText;
+		Rect lineBox;
+
+		@Setup
+		public void setup() throws Exception {
+			Page page = BenchmarkFixtures.loadPage();
+			converter = new PageToPdfConverter(LowLevelTextType.TextLine, false, false, false, false);
+			converter.createFont();
+			for (ContentIterator it = page.getLayout().iterator(RegionType.TextRegion); it.hasNext(); ) {
+				Object obj = it.next();
+				if (obj instanceof TextRegion && ((TextRegion)obj).getText() != null && ((TextRegion)obj).getText().contains("\n")) {
+					region = (TextRegion)obj;
+					break;
+				}
+			}
+			if (region == null)
+				throw new IllegalStateException("No text region with multiple lines in " + BenchmarkFixtures.getPageXml());
+			lineText = region.getText().split("\n")[0];
+			Rect regionBox = region.getCoords().getBoundingBox();
+			lineBox = new Rect(regionBox.left, regionBox.top, regionBox.right, regionBox.top + 70);
+		}
+	}
+
+	/**
+	 * Converter for the given text level and fitting method, with the fixture page
+	 */
+	@State(Scope.Benchmark)
+	public static class PageState {
+		/** Text level (R = regions, L = text lines, W = words, G = glyphs) */
+		@Param({ "R", "L", "W", "G" })
+		public String textLevel;
+
+		@Param({ "FONT_SIZE", "HORIZONTAL_SCALING" })
+		public String textFitting;
+
+		PageToPdfConverter converter;
+		Page page;
+
+		@Setup
+		public void setup() throws Exception {
+			page = BenchmarkFixtures.loadPage();
+			converter = new PageToPdfConverter(getTextLevel(textLevel), false, false, false, false);
+			converter.setTextFitting(TextFitting.valueOf(textFitting));
+			converter.createFont();
+		}
+	}
+
+	/**
+	 * Content type for the given text level (R, L, W or G)
+	 */
+	static ContentType getTextLevel(String level) {
+		if ("R".equals(level))
+			return RegionType.TextRegion;
+		if ("L".equals(level))
+			return LowLevelTextType.TextLine;
+		if ("W".equals(level))
+			return LowLevelTextType.Word;
+		return LowLevelTextType.Glyph;
+	}
+
+	@Benchmark
+	public float calculateFontSize(RegionState state) throws Exception {
+		return state.converter.calculateFontSize(state.lineText, state.lineBox.getWidth(), state.lineBox.getHeight());
+	}
+
+	@Benchmark
+	public float splitTextRegion(RegionState state) throws Exception {
+		List<String> strings = new ArrayList<String>();
+		List<Rect> boxes = new ArrayList<Rect>();
+		return state.converter.splitTextRegion(state.region, strings, boxes, true);
+	}
+
+	@Benchmark
+	public PreparedPage addText(PageState state) {
+		PreparedPage prepared = new PreparedPage(state.page.getLayout().getWidth(), state.page.getLayout().getHeight());
+		state.converter.addText(prepared, state.page);
+		return prepared;
+	}
+}
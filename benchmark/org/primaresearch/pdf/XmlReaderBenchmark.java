@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+
+/**
+ * Reading the PAGE XML and preparing text and outlines (no image): page object model
+ * (<code>readPage</code>, <code>addText</code>, <code>addOutlines</code>) compared with the streaming reader.<br>
+ * Run with <code>-prof gc</code> to compare the allocation per page.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlReaderBenchmark {
+
+	/**
+	 * Converter for the given text level, with outlines of all levels or without outlines
+	 */
+	@State(Scope.Benchmark)
+	public static class ReaderState {
+		/** Text level (R = regions, L = text lines, W = words, G = glyphs) */
+		@Param({ "R", "G" })
+		public String textLevel;
+
+		@Param({ "false", "true" })
+		public boolean outlines;
+
+		PageToPdfConverter converter;
+		String xmlFile;
+
+		@Setup
+		public void setup() throws Exception {
+			xmlFile = BenchmarkFixtures.getPageXml();
+			converter = new PageToPdfConverter(TextBenchmark.getTextLevel(textLevel), outlines, outlines, outlines, outlines);
+			converter.createFont();
+		}
+	}
+
+	@Benchmark
+	public PreparedPage model(ReaderState state) throws Exception {
+		Page page = PageXmlInputOutput.readPage(state.xmlFile);
+		PreparedPage prepared = new PreparedPage(page.getLayout().getWidth(), page.getLayout().getHeight());
+		state.converter.addText(prepared, page);
+		if (state.outlines) {
+			state.converter.addOutlines(prepared, page, null, OutputDocument.REGION_OUTLINES);
+			state.converter.addOutlines(prepared, page, LowLevelTextType.TextLine, OutputDocument.TEXT_LINE_OUTLINES);
+			state.converter.addOutlines(prepared, page, LowLevelTextType.Word, OutputDocument.WORD_OUTLINES);
+			state.converter.addOutlines(prepared, page, LowLevelTextType.Glyph, OutputDocument.GLYPH_OUTLINES);
+		}
+		return prepared;
+	}
+
+	@Benchmark
+	public PreparedPage streaming(ReaderState state) throws Exception {
+		return state.converter.readPageStreaming(state.xmlFile);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Output stream for an incremental update of a file: the first bytes (a copy of the existing
+ * file content) are skipped, everything after them is appended to the file.
+ * If the update is not committed, the file is truncated to its original length when the stream is closed.
+ *
+ */
+class AppendingOutputStream extends OutputStream {
+	private File file;
+	private long originalLength;
+	private long skip;
+	private OutputStream out;
+	private boolean committed = false;
+
+	/**
+	 * Constructor
+	 * @param file File to append to
+	 */
+	AppendingOutputStream(File file) throws IOException {
+		this.file = file;
+		this.originalLength = file.length();
+		this.skip = originalLength;
+		this.out = new FileOutputStream(file, true);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (skip > 0)
+			skip--;
+		else
+			out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (skip > 0) {
+			int skipped = (int)Math.min(skip, len);
+			skip -= skipped;
+			off += skipped;
+			len -= skipped;
+		}
+		if (len > 0)
+			out.write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Marks the update as complete (call before closing)
+	 */
+	void commit() {
+		committed = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+		if (!committed || skip > 0) {
+			//Restore the original file
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(originalLength);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts a whole corpus to PDF, writing one PDF per PAGE XML file or one PDF per sub-folder.<br>
+ * The conversions run in parallel on a work-stealing thread pool. The given converter is shared by all threads.<br>
+ * Pages that fail are prepared again (see <code>setMaxAttempts</code>). With a checkpoint journal
+ * (see <code>setJournal</code>), an interrupted run can be resumed: outputs that are complete and up to date are skipped.
+ *
+ */
+public class BatchConverter {
+	private PageToPdfConverter converter;
+	private int threads;
+	private AtomicLong documentCount = new AtomicLong();
+	private AtomicLong pageCount = new AtomicLong();
+	private AtomicLong byteCount = new AtomicLong();
+	private AtomicLong skippedCount = new AtomicLong();
+	private AtomicLong failedCount = new AtomicLong();
+	private File journalFile = null;
+	private CheckpointJournal journal;
+	private int maxAttempts = 2;
+	private long startTime;
+	private long endTime;
+
+	/**
+	 * Constructor
+	 * @param converter Configured converter to be used for all documents
+	 * @param threads Number of documents to convert in parallel
+	 */
+	public BatchConverter(PageToPdfConverter converter, int threads) {
+		this.converter = converter;
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Checkpoint journal for resuming interrupted runs. Completed outputs are recorded with a hash of their
+	 * inputs and the converter settings and are skipped in later runs while they are up to date.
+	 * Outputs with pages that still fail after the maximum number of attempts are quarantined: they are renamed to
+	 * <code>*.incomplete.pdf</code>, their failed pages are recorded, and they are skipped until inputs or settings change.
+	 * When a quarantined output is converted completely later, its <code>*.incomplete.pdf</code> is deleted.
+	 * @param journalFile Journal (created if it does not exist) or <code>null</code> for no journal
+	 */
+	public void setJournal(File journalFile) {
+		this.journalFile = journalFile;
+	}
+
+	/**
+	 * Number of times a page is read and prepared if it fails (e.g. I/O errors). Only the failed page is
+	 * tried again, at its position in the document; the other pages of the document are not converted again.
+	 * @param maxAttempts Attempts per page (default: 2)
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	/**
+	 * Converts each PAGE XML file of the given folder to a separate PDF file.
+	 * @param xmlFolder Folder with PAGE XML files
+	 * @param imageFolder Folder with images (filenames have to match the XML filenames)
+	 * @param outputFolder Folder for the PDF files
+	 */
+	public void convertPages(File xmlFolder, String imageFolder, File outputFolder) {
+		List<Job> jobs = new ArrayList<Job>();
+		for (PageInput input : CommandLineTool.collectInputs(xmlFolder, imageFolder))
+			jobs.add(new Job(Arrays.asList(input), new File(outputFolder, pdfFilename(new File(input.getXmlFile()).getName()))));
+		run(jobs);
+	}
+
+	/**
+	 * Converts each sub-folder of the given folder to one PDF file (one PDF page per PAGE XML file).
+	 * @param xmlFolder Folder with sub-folders containing PAGE XML files
+	 * @param imageFolder Folder with image sub-folders (folder and filenames have to match the XML folders and files)
+	 *   or with one multi-page TIFF per sub-folder (filename has to match the XML folder name)
+	 * @param outputFolder Folder for the PDF files
+	 */
+	public void convertFolders(File xmlFolder, String imageFolder, File outputFolder) {
+		File[] subFolders = xmlFolder.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				return f.isDirectory();
+			}
+		});
+		List<Job> jobs = new ArrayList<Job>();
+		if (subFolders != null) {
+			Arrays.sort(subFolders);
+			for (File folder : subFolders) {
+				String imageSource = imageFolder + File.separator + folder.getName();
+				if (!new File(imageSource).isDirectory()) {
+					String multiPageImage = CommandLineTool.findImage(imageSource + ".");
+					if (multiPageImage != null)
+						imageSource = multiPageImage;
+				}
+				jobs.add(new Job(folder, imageSource, new File(outputFolder, folder.getName() + ".pdf")));
+			}
+		}
+		run(jobs);
+	}
+
+	/**
+	 * Prints a throughput summary of the last run to stdout
+	 */
+	public void printSummary() {
+		double seconds = Math.max(1L, endTime - startTime) / 1000000000.0;
+		System.out.println(String.format("Converted %d documents, %d pages in %.1f s", documentCount.get(), pageCount.get(), seconds));
+		if (skippedCount.get() > 0)
+			System.out.println("Skipped " + skippedCount.get() + " documents (up to date or quarantined, see journal)");
+		if (failedCount.get() > 0)
+			System.out.println("Failed " + failedCount.get() + " documents");
+		System.out.println(String.format("Throughput: %.1f pages/s, %.2f MB/s (%.1f MB written)",
+				pageCount.get() / seconds, byteCount.get() / seconds / 1048576.0, byteCount.get() / 1048576.0));
+		System.out.println(FontRegistry.getInstance());
+	}
+
+	/** Number of documents written in the last run */
+	public long getDocumentCount() {
+		return documentCount.get();
+	}
+
+	/** Number of pages written in the last run */
+	public long getPageCount() {
+		return pageCount.get();
+	}
+
+	/** Number of bytes written in the last run */
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
+	/** Number of documents skipped in the last run (complete or quarantined according to the journal) */
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	/** Number of documents with failed pages in the last run */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Runs the given jobs on the thread pool and waits until all are finished.
+	 */
+	private void run(List<Job> jobs) {
+		documentCount.set(0);
+		pageCount.set(0);
+		byteCount.set(0);
+		skippedCount.set(0);
+		failedCount.set(0);
+		startTime = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			if (journalFile != null)
+				journal = new CheckpointJournal(journalFile);
+			pool.invoke(new JobRange(jobs, 0, jobs.size()));
+		} catch (IOException exc) {
+			exc.printStackTrace();
+		} finally {
+			pool.shutdown();
+			if (journal != null) {
+				try {
+					journal.close();
+				} catch (IOException exc) {
+					exc.printStackTrace();
+				}
+				journal = null;
+			}
+		}
+		endTime = System.nanoTime();
+	}
+
+	/**
+	 * Converts one document
+	 */
+	private void convert(Job job) throws IOException {
+		List<PageInput> inputs = job.inputs;
+		if (inputs == null)
+			inputs = CommandLineTool.collectInputs(job.xmlFolder, job.imageFolder);
+		if (inputs.isEmpty())
+			return;
+
+		//Up to date or quarantined?
+		String hash = null;
+		if (journal != null) {
+			hash = CheckpointJournal.hash(inputs, converter.getSettingsDescription());
+			if (journal.isDone(job.target, hash) || journal.getFailedAttempts(job.target, hash) >= maxAttempts) {
+				skippedCount.incrementAndGet();
+				return;
+			}
+		}
+
+		//Convert (pages that fail are prepared again)
+		List<String> failed = new ArrayList<String>();
+		int pages = converter.convert(inputs.iterator(), job.target.getPath(), maxAttempts, failed);
+		boolean complete = pages == inputs.size() && failed.isEmpty();
+
+		if (pages > 0) {
+			documentCount.incrementAndGet();
+			pageCount.addAndGet(pages);
+			byteCount.addAndGet(job.target.length());
+		}
+		if (!complete) {
+			failedCount.incrementAndGet();
+			System.err.println("Failed: " + job.target.getName() + " (" + (inputs.size() - pages) + " of " + inputs.size() + " pages)");
+		}
+		File incomplete = getIncompleteFile(job.target);
+		if (complete)
+			incomplete.delete(); //Quarantined in an earlier run
+		if (journal != null) {
+			if (complete)
+				journal.done(job.target, hash);
+			else {
+				//Quarantine (incomplete PDF is kept under a different name)
+				incomplete.delete();
+				job.target.renameTo(incomplete);
+				journal.failed(job.target, hash, maxAttempts, failed);
+			}
+		}
+	}
+
+	/**
+	 * Name of a quarantined output (<code>*.incomplete.pdf</code>)
+	 */
+	static File getIncompleteFile(File target) {
+		return new File(target.getParentFile(), target.getName().replaceFirst("\\.pdf$", "") + ".incomplete.pdf");
+	}
+
+	/**
+	 * PDF filename for the given PAGE XML filename (extension replaced)
+	 */
+	static String pdfFilename(String xmlFilename) {
+		int dot = xmlFilename.lastIndexOf('.');
+		return (dot > 0 ? xmlFilename.substring(0, dot) : xmlFilename) + ".pdf";
+	}
+
+	/**
+	 * One output PDF with its inputs (either a list of pages or a folder that is listed when the job runs)
+	 */
+	private static class Job {
+		List<PageInput> inputs;
+		File xmlFolder;
+		String imageFolder;
+		File target;
+
+		Job(List<PageInput> inputs, File target) {
+			this.inputs = inputs;
+			this.target = target;
+		}
+
+		Job(File xmlFolder, String imageFolder, File target) {
+			this.xmlFolder = xmlFolder;
+			this.imageFolder = imageFolder;
+			this.target = target;
+		}
+	}
+
+	/**
+	 * Range of jobs, split in halves until single jobs remain (idle threads steal the other halves).
+	 */
+	private class JobRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private List<Job> jobs;
+		private int from;
+		private int to;
+
+		JobRange(List<Job> jobs, int from, int to) {
+			this.jobs = jobs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (to > from) {
+					try {
+						convert(jobs.get(from));
+					} catch (Exception exc) {
+						exc.printStackTrace();
+					}
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new JobRange(jobs, from, middle), new JobRange(jobs, middle, to));
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of a batch run, so that an interrupted run can be resumed.<br>
+ * Each line records the result for one output PDF together with a hash of its inputs and the converter settings:
+ * <pre>
+ * done    &lt;pdf&gt; &lt;hash&gt; &lt;pdf size&gt;
+ * failed  &lt;pdf&gt; &lt;hash&gt; &lt;attempts&gt; &lt;failed XML files, separated by |&gt;
+ * </pre>
+ * (tab separated). The last line for an output is valid. The hash covers path, size and modification time
+ * of each input file (the files are not read), so changed inputs or settings are converted again.
+ *
+ */
+class CheckpointJournal {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private File file;
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+	private Writer out;
+
+	/**
+	 * Opens the journal (reads the existing entries)
+	 * @param file Journal file (created if it does not exist)
+	 */
+	CheckpointJournal(File file) throws IOException {
+		this.file = file;
+		if (file.exists())
+			read();
+		out = new OutputStreamWriter(new FileOutputStream(file, true), UTF8);
+	}
+
+	private void read() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				//Ignore incomplete lines (interrupted while writing)
+				if (fields.length < 4)
+					continue;
+				try {
+					Entry entry = new Entry();
+					entry.done = "done".equals(fields[0]);
+					entry.hash = fields[2];
+					if (entry.done)
+						entry.size = Long.parseLong(fields[3]);
+					else
+						entry.attempts = Integer.parseInt(fields[3]);
+					entries.put(fields[1], entry);
+				} catch (NumberFormatException exc) {
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the given output is complete and up to date
+	 * @param target Output PDF
+	 * @param hash Hash of inputs and settings (see <code>hash()</code>)
+	 */
+	synchronized boolean isDone(File target, String hash) {
+		Entry entry = entries.get(target.getName());
+		return entry != null && entry.done && entry.hash.equals(hash) && target.length() == entry.size;
+	}
+
+	/**
+	 * Returns the number of failed attempts for the given output with the same inputs and settings
+	 */
+	synchronized int getFailedAttempts(File target, String hash) {
+		Entry entry = entries.get(target.getName());
+		if (entry == null || entry.done || !entry.hash.equals(hash))
+			return 0;
+		return entry.attempts;
+	}
+
+	/**
+	 * Records a complete output
+	 */
+	synchronized void done(File target, String hash) throws IOException {
+		Entry entry = new Entry();
+		entry.done = true;
+		entry.hash = hash;
+		entry.size = target.length();
+		entries.put(target.getName(), entry);
+		write("done\t" + target.getName() + "\t" + hash + "\t" + entry.size);
+	}
+
+	/**
+	 * Records a failed conversion
+	 * @param failedPages PAGE XML files of the pages that failed
+	 */
+	synchronized void failed(File target, String hash, int attempts, List<String> failedPages) throws IOException {
+		Entry entry = new Entry();
+		entry.hash = hash;
+		entry.attempts = attempts;
+		entries.put(target.getName(), entry);
+		StringBuilder pages = new StringBuilder();
+		for (String page : failedPages) {
+			if (pages.length() > 0)
+				pages.append('|');
+			pages.append(page);
+		}
+		write("failed\t" + target.getName() + "\t" + hash + "\t" + attempts + "\t" + pages.toString().replace('\t', ' ').replace('\n', ' '));
+	}
+
+	private void write(String line) throws IOException {
+		out.write(line);
+		out.write('\n');
+		out.flush();
+	}
+
+	synchronized void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Hash of the given inputs (path, size and modification time of the files) and the converter settings
+	 */
+	static String hash(List<PageInput> inputs, String settings) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException exc) {
+			throw new IllegalStateException(exc);
+		}
+		StringBuilder str = new StringBuilder(settings);
+		for (PageInput input : inputs) {
+			str.append('\n');
+			append(str, input.getXmlFile());
+			append(str, input.getImageFile());
+			str.append(input.getImageFrame());
+			digest.update(str.toString().getBytes(UTF8));
+			str.setLength(0);
+		}
+		byte[] bytes = digest.digest();
+		char[] chars = new char[bytes.length * 2];
+		for (int i=0; i<bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	private static void append(StringBuilder str, String path) {
+		str.append(path);
+		if (path != null) {
+			File f = new File(path);
+			str.append('|').append(f.length()).append('|').append(f.lastModified());
+		}
+		str.append('|');
+	}
+
+	/**
+	 * Last recorded result for an output
+	 */
+	private static class Entry {
+		boolean done;
+		String hash;
+		long size;
+		int attempts;
+	}
+}
@@ -15,16 +15,21 @@
  */
 package org.primaresearch.pdf;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.primaresearch.dla.page.Page;
 import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
-import org.primaresearch.dla.page.layout.physical.shared.ContentType;
-import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
-import org.primaresearch.dla.page.layout.physical.shared.RegionType;
 
 /**
  * Command line interface for PAGE to PDF converter
@@ -49,9 +54,20 @@ public class CommandLineTool {
 			String xmlSource = null;
 			String imageSource = null;
 			String pdfFilename = null;
-			String textSource = null;
-			String outlines = null;
-			String fontFile = null;
+			ConverterOptions options = new ConverterOptions();
+			int threads = 1;
+			String batchMode = null;
+			String frameMapFile = null;
+			String server = null;
+			String serverRoot = null;
+			int queueLimit = 0;
+			boolean watch = false;
+			long watchDelay = -1;
+			String statisticsFile = null;
+			String journalFile = null;
+			int attempts = 0;
+			boolean append = false;
+			String mergeSource = null;
 			for (int i=0; i<args.length; i++) {
 				if ("-xml".equals(args[i])) {
 					i++;
@@ -65,48 +81,109 @@ public class CommandLineTool {
 					i++;
 					pdfFilename = args[i];
 				}
-				else if ("-text-source".equals(args[i])) {
+				else if ("-threads".equals(args[i])) {
 					i++;
-					textSource = args[i];
+					threads = Integer.parseInt(args[i]);
 				}
-				else if ("-outlines".equals(args[i])) {
+				else if ("-journal".equals(args[i])) {
 					i++;
-					outlines = args[i];
+					journalFile = args[i];
 				}
-				else if ("-font".equals(args[i])) {
+				else if ("-attempts".equals(args[i])) {
+					i++;
+					attempts = Integer.parseInt(args[i]);
+				}
+				else if ("-append".equals(args[i])) {
+					append = true;
+				}
+				else if ("-merge".equals(args[i])) {
+					i++;
+					mergeSource = args[i];
+				}
+				else if ("-large-document".equals(args[i])) {
+					options.largeDocumentMode = true;
+				}
+				else if ("-statistics".equals(args[i])) {
+					i++;
+					statisticsFile = args[i];
+				}
+				else if ("-frame-map".equals(args[i])) {
+					i++;
+					frameMapFile = args[i];
+				}
+				else if ("-batch".equals(args[i])) {
+					i++;
+					batchMode = args[i].toLowerCase();
+				}
+				else if ("-server".equals(args[i])) {
+					i++;
+					server = args[i].toLowerCase();
+				}
+				else if ("-server-root".equals(args[i])) {
+					i++;
+					serverRoot = args[i];
+				}
+				else if ("-watch".equals(args[i])) {
+					watch = true;
+				}
+				else if ("-watch-delay".equals(args[i])) {
+					i++;
+					watchDelay = Long.parseLong(args[i]);
+				}
+				else if ("-queue".equals(args[i])) {
+					i++;
+					queueLimit = Integer.parseInt(args[i]);
+				}
+				//Converter settings (text, outlines, font, image, compression)
+				else if (args[i].startsWith("-") && i + 1 < args.length) {
+					try {
+						if (!options.set(args[i].substring(1), args[i+1])) {
+							System.err.println("Unknown argument: "+args[i]);
+							showUsage();
+							return;
+						}
+					} catch (IllegalArgumentException exc) {
+						System.err.println("Invalid value for "+args[i]+": "+args[i+1]);
+						return;
+					}
 					i++;
-					fontFile = args[i];
 				}
 				else {
 					System.err.println("Unknown argument: "+args[i]);
 				}
 			}
 			
-			//Text source
-			ContentType textSourceType = null;
-			if (textSource != null) {
-				textSource = textSource.toLowerCase();
-				if (textSource.equals("r"))
-					textSourceType = RegionType.TextRegion;
-				else if (textSource.equals("l") || textSource.equals("t"))
-					textSourceType = LowLevelTextType.TextLine;
-				else if (textSource.equals("w"))
-					textSourceType = LowLevelTextType.Word;
-				else if (textSource.equals("g"))
-					textSourceType = LowLevelTextType.Glyph;
+			//Server mode (jobs from stdin or a local socket)
+			if (server != null) {
+				File root = new File(serverRoot != null ? serverRoot : ".");
+				ConversionServer conversionServer = new ConversionServer(options, root, threads, queueLimit > 0 ? queueLimit : 100);
+				if (server.equals("stdin"))
+					conversionServer.serve(System.in, System.out);
+				else
+					conversionServer.listen(Integer.parseInt(server));
+				return;
 			}
 			
-			//Outlines to render
-			boolean addRegionOutlines = false;
-			boolean addTextLineOutlines = false;
-			boolean addWordOutlines = false;
-			boolean addGlyphOutlines = false;
-			if (outlines != null) {
-				outlines = outlines.toLowerCase();
-				addRegionOutlines = outlines.contains("r");
-				addTextLineOutlines = outlines.contains("l") || outlines.contains("t");
-				addWordOutlines = outlines.contains("w");
-				addGlyphOutlines = outlines.contains("g");
+			//Merge mode (join finished PDFs)
+			if (mergeSource != null) {
+				if (pdfFilename == null) {
+					System.err.println("Output file not specified!");
+					return;
+				}
+				List<String> pdfFiles = collectPdfFiles(new File(mergeSource), new File(pdfFilename));
+				PdfMerger merger = new PdfMerger();
+				merger.setFullCompression(options.fullCompression);
+				long start = System.currentTimeMillis();
+				int pages;
+				try {
+					pages = merger.merge(pdfFiles, pdfFilename);
+				} catch (IllegalArgumentException exc) {
+					System.err.println(exc.getMessage());
+					return;
+				}
+				System.out.println("Merged " + pdfFiles.size() + " PDFs (" + pages + " pages) in "
+									+ (System.currentTimeMillis() - start) + " ms");
+				return;
 			}
 			
 			//Load page file
@@ -132,46 +209,90 @@ public class CommandLineTool {
 				return;
 			}
 			
-			PageToPdfConverter converter = new PageToPdfConverter(	textSourceType, 
-																	addRegionOutlines, 
-																	addTextLineOutlines, 
-																	addWordOutlines,
-																	addGlyphOutlines);
-			//Font
-			if (fontFile != null)
-				converter.setFontFilePath(fontFile);
+			if (options.isSplitting() && (append || batchMode != null || watch)) {
+				System.err.println("Splitting is not supported in append, batch and watch mode!");
+				return;
+			}
+			
+			PageToPdfConverter converter = options.createConverter();
+			StatisticsCsvWriter statistics = null;
+			if (statisticsFile != null) {
+				statistics = new StatisticsCsvWriter(statisticsFile);
+				converter.setConversionListener(statistics);
+			}
 			
 			//Convert
+			// Watch folder (one PDF per page, as pages arrive)
+			if (watch) {
+				if (!xmlSourceFile.isDirectory() || !new File(imageSource).isDirectory()) {
+					System.err.println("Watch mode requires a PAGE XML folder and an image folder!");
+					return;
+				}
+				FolderWatcher watcher = new FolderWatcher(converter, threads);
+				if (watchDelay >= 0)
+					watcher.setQuietPeriod(watchDelay);
+				watcher.watch(xmlSourceFile, new File(imageSource), new File(pdfFilename));
+			}
+			// Batch (one PDF per page or per folder)
+			else if (batchMode != null) {
+				if (!xmlSourceFile.isDirectory()) {
+					System.err.println("Batch mode requires a PAGE XML folder!");
+					return;
+				}
+				File outputFolder = new File(pdfFilename);
+				outputFolder.mkdirs();
+				BatchConverter batch = new BatchConverter(converter, threads);
+				if (journalFile != null)
+					batch.setJournal(new File(journalFile));
+				if (attempts > 0)
+					batch.setMaxAttempts(attempts);
+				if (batchMode.equals("f"))
+					batch.convertFolders(xmlSourceFile, imageSource, outputFolder);
+				else
+					batch.convertPages(xmlSourceFile, imageSource, outputFolder);
+				batch.printSummary();
+			}
 			// Multiple files
-			if (xmlSourceFile.isDirectory()) {
-				//Page XMLs
-				File[] xmlFiles = xmlSourceFile.listFiles(new FilenameFilter() {
-					@Override
-					public boolean accept(File dir, String name) {
-						return name.toLowerCase().endsWith(".xml");
-					}
-				});
-				List<Page> pages = new ArrayList<Page>();
-				List<String> images = new ArrayList<String>();
-				for (File f : xmlFiles) {
-					//Image
-					String path = imageSource + File.separator + f.getName();
-					String imageFilePath = findImage(path.substring(0, path.length()-3));
-					if (imageFilePath != null) {
-						pages.add(PageXmlInputOutput.readPage(f.getAbsolutePath()));
-						images.add(imageFilePath);
-					} else {
-						System.err.println("Image not found for: " + f.getAbsolutePath());
-					}
+			else if (xmlSourceFile.isDirectory()) {
+				//Pages are loaded one at a time by the converter
+				converter.setWorkerThreads(threads);
+				Map<String, Integer> frameMap = frameMapFile != null ? readFrameMap(new File(frameMapFile)) : null;
+				if (append)
+					converter.append(collectInputs(xmlSourceFile, imageSource, frameMap).iterator(), pdfFilename);
+				else if (options.isSplitting()) {
+					List<String> parts = converter.convertToParts(collectInputs(xmlSourceFile, imageSource, frameMap), pdfFilename).partFiles;
+					for (String part : parts)
+						System.out.println("Written: " + part);
 				}
-				
-				converter.convert(pages, images, pdfFilename);
+				else
+					converter.convert(collectInputs(xmlSourceFile, imageSource, frameMap).iterator(), pdfFilename);
 			} 
+			// Single file, streaming reader (no page object)
+			else if (options.streamingXmlReader) {
+				List<PageInput> input = Collections.singletonList(new PageInput(xmlSource, imageSource));
+				if (append)
+					converter.append(input.iterator(), pdfFilename);
+				else
+					converter.convert(input.iterator(), pdfFilename);
+			}
 			// Single file
 			else 
 			{ 
 				Page page = PageXmlInputOutput.readPage(xmlSource);
-				converter.convert(page, imageSource, pdfFilename);
+				if (append)
+					converter.append(Collections.singletonList(page), Collections.singletonList(imageSource), pdfFilename);
+				else
+					converter.convert(page, imageSource, pdfFilename);
+			}
+			if (statistics != null)
+				statistics.close();
+			
+			//Font embedding report
+			if (batchMode == null && !options.isSplitting() && options.fontFile != null && options.fontEmbedding != null) {
+				long fullSize = new File(options.fontFile).length();
+				long embeddedSize = PageToPdfConverter.getEmbeddedFontSize(pdfFilename);
+				System.out.println("Embedded font program: " + embeddedSize + " of " + fullSize + " bytes ("
+									+ (fullSize - embeddedSize) + " bytes saved)");
 			}
 			
 		} catch(Exception exc) {
@@ -179,7 +300,133 @@ public class CommandLineTool {
 		}
 	}
 	
-	private static String findImage(String baseFilePath) {
+	/**
+	 * Collects the PAGE XML files of the given folder and finds the matching images (sorted by filename).
+	 * @param xmlFolder Folder with PAGE XML files
+	 * @param imageSource Folder with images (the filenames have to match the filenames of the XMLs)
+	 *   or a multi-page TIFF (frame N for the Nth XML file)
+	 * @return List of inputs for the converter
+	 */
+	static List<PageInput> collectInputs(File xmlFolder, String imageSource) {
+		return collectInputs(xmlFolder, imageSource, null);
+	}
+
+	/**
+	 * Collects the PAGE XML files of the given folder and finds the matching images (sorted by filename).
+	 * @param xmlFolder Folder with PAGE XML files
+	 * @param imageSource Folder with images (the filenames have to match the filenames of the XMLs)
+	 *   or a multi-page TIFF
+	 * @param frameMap Frame index for each XML filename (multi-page TIFF only). If <code>null</code>,
+	 *   frame N is used for the Nth XML file.
+	 * @return List of inputs for the converter
+	 */
+	static List<PageInput> collectInputs(File xmlFolder, String imageSource, Map<String, Integer> frameMap) {
+		//Page XMLs
+		File[] xmlFiles = xmlFolder.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.toLowerCase().endsWith(".xml");
+			}
+		});
+		List<PageInput> inputs = new ArrayList<PageInput>();
+		if (xmlFiles == null)
+			return inputs;
+		Arrays.sort(xmlFiles);
+		boolean multiPageImage = new File(imageSource).isFile();
+		for (int i=0; i<xmlFiles.length; i++) {
+			File f = xmlFiles[i];
+			//Frame of multi-page image
+			if (multiPageImage) {
+				Integer frame = i;
+				if (frameMap != null) {
+					frame = frameMap.get(f.getName());
+					if (frame == null) {
+						System.err.println("No image frame specified for: " + f.getAbsolutePath());
+						continue;
+					}
+				}
+				inputs.add(new PageInput(f.getAbsolutePath(), imageSource, frame));
+				continue;
+			}
+			//Image
+			String path = imageSource + File.separator + f.getName();
+			String imageFilePath = findImage(path.substring(0, path.length()-3));
+			if (imageFilePath != null) {
+				inputs.add(new PageInput(f.getAbsolutePath(), imageFilePath));
+			} else {
+				System.err.println("Image not found for: " + f.getAbsolutePath());
+			}
+		}
+		return inputs;
+	}
+
+	/**
+	 * Reads a frame map (one line per PAGE XML file: filename and frame index, separated by whitespace;
+	 * lines starting with # are ignored).
+	 * @param file Text file
+	 * @return Map with frame index by XML filename
+	 */
+	static Map<String, Integer> readFrameMap(File file) throws IOException {
+		Map<String, Integer> frames = new HashMap<String, Integer>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				int split = line.lastIndexOf(' ') > line.lastIndexOf('\t') ? line.lastIndexOf(' ') : line.lastIndexOf('\t');
+				if (split < 0) {
+					System.err.println("Invalid frame map entry: " + line);
+					continue;
+				}
+				frames.put(line.substring(0, split).trim(), Integer.parseInt(line.substring(split + 1)));
+			}
+		} finally {
+			reader.close();
+		}
+		return frames;
+	}
+
+	/**
+	 * Returns the PDF files to be merged: all PDFs of a folder (sorted by filename)
+	 * or the files listed in a text file (one per line, lines starting with # are ignored)
+	 * @param target Output PDF (left out if it is in the folder, e.g. from a previous run)
+	 */
+	static List<String> collectPdfFiles(File source, File target) throws IOException {
+		List<String> pdfFiles = new ArrayList<String>();
+		if (source.isDirectory()) {
+			File[] files = source.listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.toLowerCase().endsWith(".pdf");
+				}
+			});
+			if (files != null) {
+				Arrays.sort(files);
+				String targetPath = target.getCanonicalPath();
+				for (File f : files) {
+					if (!f.getCanonicalPath().equals(targetPath))
+						pdfFiles.add(f.getPath());
+				}
+			}
+			return pdfFiles;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					pdfFiles.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return pdfFiles;
+	}
+
+	static String findImage(String baseFilePath) {
 		String[] extensions = new String[] {"tif", "tiff", "png", "jpg", "jpeg"};
 		for (String extension : extensions) {
 			String filePath = baseFilePath + extension;
@@ -204,7 +451,13 @@ public class CommandLineTool {
 		System.out.println("");
 		System.out.println("  -image <image file|folder> Single document image (.tif, .png, .jpg) or");
 		System.out.println("                             a folder with multiple images (the filenames");
-		System.out.println("                             have to match the filenames of the XMLs).");
+		System.out.println("                             have to match the filenames of the XMLs) or");
+		System.out.println("                             a multi-page TIFF for a folder of XMLs (frame N");
+		System.out.println("                             for the Nth XML file in filename order).");
+		System.out.println("");
+		System.out.println("  -frame-map <text file>  Optional. Frame of the multi-page TIFF for each");
+		System.out.println("                          XML file (one line per file: <filename> <frame>,");
+		System.out.println("                          the first frame is 0).");
 		System.out.println("");
 		System.out.println("  -pdf <PDF file>         Output PDF file.");
 		System.out.println("");
@@ -214,6 +467,11 @@ public class CommandLineTool {
 		System.out.println("                            Word objects         W");
 		System.out.println("                            Glyph objects        G");
 		System.out.println("");
+		System.out.println("  -text-fitting <size|scale>  Optional. Fitting of the text to the objects:");
+		System.out.println("                            Font size to fit the width (default)  size");
+		System.out.println("                            Font size from the height, text       scale");
+		System.out.println("                            scaled horizontally to the width");
+		System.out.println("");
 		System.out.println("  -outlines <R|L|W|G>     Optional. Add layer with object outlines.");
 		System.out.println("                          One or a combination of (no spaces)):");
 		System.out.println("                              Regions     R");
@@ -224,6 +482,102 @@ public class CommandLineTool {
 		System.out.println("  -font <TTF file>        Optional. TrueType font to be used.");
 		System.out.println("                          See included font 'data/AletheiaSans.ttf' ");
 		System.out.println("");
+		System.out.println("  -font-embedding <none|subset|full>  Optional. Embedding of the TTF font:");
+		System.out.println("                            Not embedded (CP1252 characters only)  none");
+		System.out.println("                            Glyphs used in the document (default)  subset");
+		System.out.println("                            Whole font                             full");
+		System.out.println("                          Prints the size saved per document.");
+		System.out.println("");
+		System.out.println("  -image-profile <name>   Optional. Resolution and compression of the images:");
+		System.out.println("                            Images as they are (default)        original");
+		System.out.println("                            300 DPI, JPEG quality 0.85          print");
+		System.out.println("                            150 DPI, JPEG quality 0.75          ebook");
+		System.out.println("                            96 DPI, JPEG quality 0.6            screen");
+		System.out.println("                          Black and white images are compressed with G4.");
+		System.out.println("");
+		System.out.println("  -compression <normal|full>  Optional. PDF structure:");
+		System.out.println("                            Cross-reference table (default)     normal");
+		System.out.println("                            Compressed cross-reference and      full");
+		System.out.println("                            object streams (PDF 1.5)");
+		System.out.println("");
+		System.out.println("  -compression-level <0-9>  Optional. Flate compression level of the text");
+		System.out.println("                          and outlines (0 none, 9 best). Default: 6");
+		System.out.println("");
+		System.out.println("  -xml-reader <model|streaming>  Optional. Reading of the PAGE XML:");
+		System.out.println("                            Page object model (default)         model");
+		System.out.println("                            Streaming parser, only the content  streaming");
+		System.out.println("                            needed for the PDF (faster, less memory)");
+		System.out.println("");
+		System.out.println("  -statistics <CSV file>  Optional. Write the timings per page and stage");
+		System.out.println("                          (XML, image, text, outlines, writing) and the");
+		System.out.println("                          number of text objects, glyphs and polygons.");
+		System.out.println("");
+		System.out.println("  -append                 Optional. Append the pages to the PDF file (if it");
+		System.out.println("                          exists) as an incremental update. Existing pages");
+		System.out.println("                          are not rewritten. Not supported in batch mode.");
+		System.out.println("");
+		System.out.println("  -split-pages <number>   Optional. Split the output into several PDFs with");
+		System.out.println("                          at most the given number of pages (-pdf book.pdf");
+		System.out.println("                          gives book_001.pdf, book_002.pdf, ...). The parts");
+		System.out.println("                          are written in parallel (see -threads).");
+		System.out.println("");
+		System.out.println("  -split-size <size>      Optional. Split the output into PDFs below the");
+		System.out.println("                          given size (estimated from the image sizes),");
+		System.out.println("                          e.g. 500K, 20M, 1G. Can be combined with");
+		System.out.println("                          -split-pages.");
+		System.out.println("");
+		System.out.println("  -merge <folder|list>    Merge mode: join the PDFs of a folder (sorted by");
+		System.out.println("                          filename) or the PDFs listed in a text file (one");
+		System.out.println("                          per line) into -pdf, without converting again.");
+		System.out.println("                          Identical images and fonts are written once.");
+		System.out.println("");
+		System.out.println("  -large-document         Optional. Constant memory for documents with");
+		System.out.println("                          many thousand pages (image deduplication only");
+		System.out.println("                          between pages that are not far apart).");
+		System.out.println("");
+		System.out.println("  -threads <number>       Optional. Number of threads preparing pages in");
+		System.out.println("                          parallel (folder mode) or number of PDFs written");
+		System.out.println("                          in parallel (batch, watch, server mode). Default: 1");
+		System.out.println("");
+		System.out.println("  -batch <P|F>            Optional. Batch mode, -pdf is the output folder:");
+		System.out.println("                            One PDF per PAGE XML file           P");
+		System.out.println("                            One PDF per sub-folder of -xml      F");
+		System.out.println("                          (image sub-folders or multi-page TIFFs must match");
+		System.out.println("                          the XML sub-folders)");
+		System.out.println("");
+		System.out.println("  -journal <file>         Optional. Checkpoint journal for batch mode. Outputs");
+		System.out.println("                          that are complete and up to date (same inputs and");
+		System.out.println("                          settings) are skipped when the run is repeated.");
+		System.out.println("                          Outputs with failed pages are renamed to");
+		System.out.println("                          *.incomplete.pdf and skipped until inputs change.");
+		System.out.println("");
+		System.out.println("  -attempts <number>      Optional. Attempts per page in batch mode if pages");
+		System.out.println("                          fail (only the failed pages are read again).");
+		System.out.println("                          Default: 2");
+		System.out.println("");
+		System.out.println("  -watch                  Watch mode, -pdf is the output folder: keeps running");
+		System.out.println("                          and converts each PAGE XML file in the -xml folder");
+		System.out.println("                          to a PDF as soon as it and its image are complete");
+		System.out.println("                          (new and changed files; up-to-date PDFs are kept).");
+		System.out.println("");
+		System.out.println("  -watch-delay <ms>       Optional. Time without changes to the XML and image");
+		System.out.println("                          before a page is converted. Default: 1000");
+		System.out.println("");
+		System.out.println("  -server <stdin|port>    Server mode: keeps running and converts jobs (one");
+		System.out.println("                          JSON object per line) from stdin or from a local");
+		System.out.println("                          TCP port, e.g.");
+		System.out.println("                          {\"id\": \"1\", \"xml\": \"p.xml\", \"image\": \"p.tif\", \"pdf\": \"p.pdf\"}");
+		System.out.println("                          Jobs may override the settings above (e.g.");
+		System.out.println("                          \"text-source\": \"W\"). One JSON response per job.");
+		System.out.println("                          -xml, -image and -pdf are not used.");
+		System.out.println("");
+		System.out.println("  -server-root <folder>   Optional. Folder with the files of the server jobs");
+		System.out.println("                          (relative paths are resolved against it, paths");
+		System.out.println("                          outside are rejected). Default: working directory");
+		System.out.println("");
+		System.out.println("  -queue <number>         Optional. Jobs waiting in server mode before new");
+		System.out.println("                          jobs are rejected. Default: 100");
+		System.out.println("");
 	}
 
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+/**
+ * Receives the statistics of each converted page and the errors of pages that could not be converted.<br>
+ * The converter calls the listener from the thread that writes the PDF (in page order). In batch mode
+ * several PDFs are written in parallel, so implementations have to be thread-safe.
+ *
+ */
+public interface ConversionListener {
+
+	/**
+	 * Called after a page has been written to the PDF
+	 * @param statistics Timings and counts of the page
+	 */
+	public void pageConverted(PageStatistics statistics);
+
+	/**
+	 * Called if a page could not be loaded or prepared (the page is skipped)
+	 * @param xmlFile PAGE XML file of the page (<code>null</code> if not known)
+	 * @param error Cause
+	 */
+	public void pageFailed(String xmlFile, Throwable error);
+}
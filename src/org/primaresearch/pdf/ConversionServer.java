@@ -0,0 +1,341 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/**
+ * Long-running conversion server: one JVM (with loaded classes and cached fonts) converts many single pages.<br>
+ * Jobs are JSON objects, one per line, read from stdin or from connections to a local TCP port (loopback only):
+ * <pre>
+ * {"id": "42", "xml": "page.xml", "image": "page.tif", "pdf": "page.pdf", "text-source": "W"}
+ * </pre>
+ * Required are <code>xml</code>, <code>image</code> and <code>pdf</code>. Optional are <code>id</code> (returned
+ * with the response), <code>frame</code> (of a multi-page TIFF), <code>append</code> (<code>true</code> to append to
+ * an existing PDF) and the converter settings with the names of the command line arguments (without '-'), which
+ * override the settings the server was started with.<br>
+ * The jobs run on a fixed number of worker threads. If the queue of waiting jobs is full, a job is rejected
+ * immediately. Jobs are not ordered, so jobs for the same PDF must not be sent before the previous one is answered.
+ * One response line is written per job, in order of completion:
+ * <pre>
+ * {"id": "42", "status": "ok", "pages": 1, "ms": 85.2}
+ * {"id": "43", "status": "error", "message": "..."}
+ * {"id": "44", "status": "rejected", "message": "Queue full"}
+ * </pre>
+ * There is no authentication: any local user (or process) that can reach stdin or the port can submit jobs,
+ * which run with the rights of the server's user. Therefore the <code>xml</code>, <code>image</code> and
+ * <code>pdf</code> paths must be within the root folder the server was started with (relative paths are
+ * resolved against it); jobs with other paths are answered with an error.
+ *
+ */
+class ConversionServer {
+	private ConverterOptions defaults;
+	private File root;
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Constructor (loads the default font)
+	 * @param defaults Converter settings for jobs that do not specify them
+	 * @param root Folder with the files of the jobs (they cannot read or write files outside)
+	 * @param threads Number of jobs converted in parallel
+	 * @param queueLimit Maximum number of jobs waiting for a worker thread
+	 */
+	ConversionServer(ConverterOptions defaults, File root, int threads, int queueLimit) throws IOException {
+		this.defaults = defaults;
+		this.root = root.getCanonicalFile();
+		threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+										new ArrayBlockingQueue<Runnable>(Math.max(1, queueLimit)));
+		executor.prestartAllCoreThreads();
+		warmUp();
+	}
+
+	/**
+	 * Loads the default font and the classes used for writing (PDF writer, image codecs), so that the
+	 * first jobs are not slower than the others
+	 */
+	private void warmUp() {
+		try {
+			defaults.createConverter().createFont();
+
+			//Small page with text and an image, written to memory
+			BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_BYTE_GRAY);
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", png);
+			ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+			ImageIO.write(image, "jpeg", new ByteArrayOutputStream());
+			Document document = new Document(new Rectangle(16, 16));
+			PdfWriter writer = PdfWriter.getInstance(document, new ByteArrayOutputStream());
+			document.open();
+			PdfContentByte cb = writer.getDirectContentUnder();
+			Image img = Image.getInstance(png.toByteArray());
+			img.setAbsolutePosition(0, 0);
+			cb.addImage(img);
+			cb.beginText();
+			cb.setFontAndSize(BaseFont.createFont(), 8);
+			cb.showText("Warm-up");
+			cb.endText();
+			document.close();
+		} catch (Exception exc) {
+			exc.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the jobs from the given stream until its end is reached and all jobs are finished, then stops the server.
+	 * @param in Job lines (e.g. stdin)
+	 * @param out Response lines (e.g. stdout)
+	 */
+	void serve(InputStream in, OutputStream out) throws IOException, InterruptedException {
+		try {
+			new Session(in, out).run();
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Accepts connections on the given port of the loopback interface (until the process is stopped).
+	 * Each connection sends job lines and receives response lines.
+	 */
+	void listen(int port) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+		System.out.println("Listening on " + serverSocket.getLocalSocketAddress());
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				Thread connection = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							new Session(socket.getInputStream(), socket.getOutputStream()).run();
+						} catch (Exception exc) {
+							exc.printStackTrace();
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException exc) {
+							}
+						}
+					}
+				}, "Connection " + socket.getRemoteSocketAddress());
+				connection.start();
+			}
+		} finally {
+			serverSocket.close();
+		}
+	}
+
+	/**
+	 * Converts the page of the given job
+	 * @param options Settings of the job
+	 * @return Response line
+	 */
+	private String convert(Map<String, String> job, ConverterOptions options) {
+		long start = System.nanoTime();
+		PageToPdfConverter converter = options.createConverter();
+		final Throwable[] failure = new Throwable[1];
+		converter.setConversionListener(new ConversionListener() {
+			@Override
+			public void pageConverted(PageStatistics statistics) {
+			}
+
+			@Override
+			public void pageFailed(String xmlFile, Throwable error) {
+				failure[0] = error;
+			}
+		});
+		int frame = job.containsKey("frame") ? Integer.parseInt(job.get("frame")) : 0; //Checked by submit
+		Iterator<PageInput> inputs = Collections.singletonList(new PageInput(job.get("xml"), job.get("image"), frame)).iterator();
+		int pages;
+		if ("true".equals(job.get("append")))
+			pages = converter.append(inputs, job.get("pdf"));
+		else
+			pages = converter.convert(inputs, job.get("pdf"));
+		if (pages == 0)
+			return response(job, "error", failure[0] != null ? String.valueOf(failure[0]) : "Conversion failed (see server log)");
+		return "{\"id\": " + SimpleJson.quote(job.get("id")) + ", \"status\": \"ok\", \"pages\": " + pages
+				+ ", \"ms\": " + String.format(Locale.ROOT, "%.1f", (System.nanoTime() - start) / 1000000.0) + "}";
+	}
+
+	/**
+	 * Resolves the given path of a job against the root folder
+	 * @return Absolute path or <code>null</code> if the file is not within the root folder
+	 */
+	String resolve(String path) throws IOException {
+		File file = new File(path);
+		if (!file.isAbsolute())
+			file = new File(root, path);
+		file = file.getCanonicalFile(); //Without '..' and links
+		if (file.equals(root) || !file.toPath().startsWith(root.toPath()))
+			return null;
+		return file.getPath();
+	}
+
+	private static String response(Map<String, String> job, String status, String message) {
+		return "{\"id\": " + SimpleJson.quote(job != null ? job.get("id") : null) + ", \"status\": \"" + status
+				+ "\", \"message\": " + SimpleJson.quote(message) + "}";
+	}
+
+	/**
+	 * Job lines from one client and the responses to it
+	 */
+	private class Session {
+		private BufferedReader in;
+		private PrintWriter out;
+		private int pendingJobs = 0;
+
+		Session(InputStream in, OutputStream out) throws IOException {
+			this.in = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+			this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+		}
+
+		/**
+		 * Submits the jobs until the end of the input and waits for them to finish
+		 */
+		void run() throws IOException, InterruptedException {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.trim().isEmpty())
+					submit(line);
+			}
+			synchronized (this) {
+				while (pendingJobs > 0)
+					wait();
+			}
+		}
+
+		private void submit(String line) {
+			//Parse and check the job before it is queued
+			final Map<String, String> job;
+			final ConverterOptions options = defaults.copy();
+			try {
+				job = SimpleJson.parseObject(line);
+			} catch (IllegalArgumentException exc) {
+				respond(response(null, "error", "Invalid job: " + exc.getMessage()));
+				return;
+			}
+			for (String required : new String[] { "xml", "image", "pdf" }) {
+				if (job.get(required) == null) {
+					respond(response(job, "error", "Missing '" + required + "'"));
+					return;
+				}
+			}
+			for (String path : new String[] { "xml", "image", "pdf" }) {
+				String resolved;
+				try {
+					resolved = resolve(job.get(path));
+				} catch (IOException exc) {
+					resolved = null;
+				}
+				if (resolved == null) {
+					respond(response(job, "error", "Path of '" + path + "' outside the server root: " + job.get(path)));
+					return;
+				}
+				job.put(path, resolved);
+			}
+			if (job.containsKey("frame")) {
+				try {
+					if (Integer.parseInt(job.get("frame")) < 0)
+						throw new NumberFormatException();
+				} catch (NumberFormatException exc) {
+					respond(response(job, "error", "Invalid value for 'frame': " + job.get("frame")));
+					return;
+				}
+			}
+			for (Map.Entry<String, String> entry : job.entrySet()) {
+				String name = entry.getKey();
+				if (name.equals("id") || name.equals("xml") || name.equals("image") || name.equals("pdf")
+						|| name.equals("frame") || name.equals("append"))
+					continue;
+				try {
+					if (!options.set(name, entry.getValue())) {
+						respond(response(job, "error", "Unknown option '" + name + "'"));
+						return;
+					}
+				} catch (IllegalArgumentException exc) {
+					respond(response(job, "error", "Invalid value for '" + name + "': " + entry.getValue()));
+					return;
+				}
+			}
+
+			synchronized (this) {
+				pendingJobs++;
+			}
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						String response;
+						try {
+							response = convert(job, options);
+						} catch (Exception exc) {
+							exc.printStackTrace();
+							response = response(job, "error", String.valueOf(exc));
+						}
+						respond(response);
+						jobFinished();
+					}
+				});
+			} catch (RejectedExecutionException exc) {
+				respond(response(job, "rejected", "Queue full"));
+				jobFinished();
+			}
+		}
+
+		private synchronized void respond(String response) {
+			out.println(response);
+			out.flush();
+		}
+
+		private synchronized void jobFinished() {
+			pendingJobs--;
+			notifyAll();
+		}
+	}
+}
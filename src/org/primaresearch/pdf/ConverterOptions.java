@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+
+/**
+ * Converter settings by option name (the command line arguments without '-'), used for the command line
+ * and for the jobs of the conversion server.
+ *
+ */
+class ConverterOptions {
+	String textSource = null;
+	String outlines = null;
+	String fontFile = null;
+	FontEmbedding fontEmbedding = null;
+	ImageProfile imageProfile = null;
+	TextFitting textFitting = null;
+	boolean fullCompression = false;
+	int compressionLevel = -1;
+	boolean streamingXmlReader = false;
+	boolean largeDocumentMode = false;
+	int maxPagesPerPart = 0;
+	long maxPartSize = 0;
+
+	/**
+	 * Sets the option with the given name
+	 * @param name Option name without '-' (e.g. "text-source")
+	 * @param value Option value
+	 * @return <code>false</code> if the name is not a converter option
+	 * @throws IllegalArgumentException Invalid value
+	 */
+	boolean set(String name, String value) {
+		if ("text-source".equals(name)) {
+			if (value.length() != 1 || "rltwg".indexOf(Character.toLowerCase(value.charAt(0))) < 0)
+				throw new IllegalArgumentException("Unknown text source: "+value);
+			textSource = value;
+		}
+		else if ("outlines".equals(name)) {
+			for (char level : value.toLowerCase().toCharArray()) {
+				if ("rltwg".indexOf(level) < 0)
+					throw new IllegalArgumentException("Unknown outline level: "+value);
+			}
+			outlines = value;
+		}
+		else if ("font".equals(name))
+			fontFile = value;
+		else if ("font-embedding".equals(name))
+			fontEmbedding = FontEmbedding.valueOf(value.toUpperCase());
+		else if ("image-profile".equals(name)) {
+			imageProfile = ImageProfile.getProfile(value);
+			if (imageProfile == null)
+				throw new IllegalArgumentException("Unknown image profile: "+value);
+		}
+		else if ("text-fitting".equals(name)) {
+			if (!"scale".equalsIgnoreCase(value) && !"size".equalsIgnoreCase(value))
+				throw new IllegalArgumentException("Unknown text fitting: "+value);
+			textFitting = "scale".equalsIgnoreCase(value) ? TextFitting.HORIZONTAL_SCALING : TextFitting.FONT_SIZE;
+		}
+		else if ("compression".equals(name)) {
+			if (!"full".equalsIgnoreCase(value) && !"normal".equalsIgnoreCase(value))
+				throw new IllegalArgumentException("Unknown compression: "+value);
+			fullCompression = "full".equalsIgnoreCase(value);
+		}
+		else if ("compression-level".equals(name)) {
+			int level = Integer.parseInt(value);
+			if (level < 0 || level > 9)
+				throw new IllegalArgumentException("Compression level out of range (0-9): "+value);
+			compressionLevel = level;
+		}
+		else if ("split-pages".equals(name))
+			maxPagesPerPart = Integer.parseInt(value);
+		else if ("split-size".equals(name))
+			maxPartSize = parseSize(value);
+		else if ("xml-reader".equals(name)) {
+			if (!"streaming".equalsIgnoreCase(value) && !"model".equalsIgnoreCase(value))
+				throw new IllegalArgumentException("Unknown XML reader: "+value);
+			streamingXmlReader = "streaming".equalsIgnoreCase(value);
+		}
+		else
+			return false;
+		return true;
+	}
+
+	/**
+	 * Returns a copy of these options (e.g. defaults to be overridden by a job)
+	 */
+	ConverterOptions copy() {
+		ConverterOptions copy = new ConverterOptions();
+		copy.textSource = textSource;
+		copy.outlines = outlines;
+		copy.fontFile = fontFile;
+		copy.fontEmbedding = fontEmbedding;
+		copy.imageProfile = imageProfile;
+		copy.textFitting = textFitting;
+		copy.fullCompression = fullCompression;
+		copy.compressionLevel = compressionLevel;
+		copy.streamingXmlReader = streamingXmlReader;
+		copy.largeDocumentMode = largeDocumentMode;
+		copy.maxPagesPerPart = maxPagesPerPart;
+		copy.maxPartSize = maxPartSize;
+		return copy;
+	}
+
+	/**
+	 * Returns <code>true</code> if the output is split into parts
+	 */
+	boolean isSplitting() {
+		return maxPagesPerPart > 0 || maxPartSize > 0;
+	}
+
+	/**
+	 * Parses a size in bytes with optional unit (e.g. "500K", "20M", "1G")
+	 * @throws IllegalArgumentException Invalid size
+	 */
+	static long parseSize(String value) {
+		String size = value.trim().toUpperCase();
+		long factor = 1;
+		if (size.endsWith("B"))
+			size = size.substring(0, size.length() - 1);
+		if (size.endsWith("K"))
+			factor = 1024L;
+		else if (size.endsWith("M"))
+			factor = 1024L * 1024;
+		else if (size.endsWith("G"))
+			factor = 1024L * 1024 * 1024;
+		if (factor > 1)
+			size = size.substring(0, size.length() - 1);
+		try {
+			return (long)(Double.parseDouble(size.trim()) * factor);
+		} catch (NumberFormatException exc) {
+			throw new IllegalArgumentException("Invalid size: "+value);
+		}
+	}
+
+	/**
+	 * Creates a converter with these settings
+	 */
+	PageToPdfConverter createConverter() {
+		//Text source
+		ContentType textSourceType = null;
+		if (textSource != null) {
+			String source = textSource.toLowerCase();
+			if (source.equals("r"))
+				textSourceType = RegionType.TextRegion;
+			else if (source.equals("l") || source.equals("t"))
+				textSourceType = LowLevelTextType.TextLine;
+			else if (source.equals("w"))
+				textSourceType = LowLevelTextType.Word;
+			else if (source.equals("g"))
+				textSourceType = LowLevelTextType.Glyph;
+		}
+		
+		//Outlines to render
+		boolean addRegionOutlines = false;
+		boolean addTextLineOutlines = false;
+		boolean addWordOutlines = false;
+		boolean addGlyphOutlines = false;
+		if (outlines != null) {
+			String levels = outlines.toLowerCase();
+			addRegionOutlines = levels.contains("r");
+			addTextLineOutlines = levels.contains("l") || levels.contains("t");
+			addWordOutlines = levels.contains("w");
+			addGlyphOutlines = levels.contains("g");
+		}
+
+		PageToPdfConverter converter = new PageToPdfConverter(	textSourceType, 
+																addRegionOutlines, 
+																addTextLineOutlines, 
+																addWordOutlines,
+																addGlyphOutlines);
+		//Font
+		if (fontFile != null)
+			converter.setFontFilePath(fontFile);
+		if (fontEmbedding != null)
+			converter.setFontEmbedding(fontEmbedding);
+		if (textFitting != null)
+			converter.setTextFitting(textFitting);
+		//Image
+		if (imageProfile != null)
+			converter.setImageProfile(imageProfile);
+		//Input
+		converter.setStreamingXmlReader(streamingXmlReader);
+		//Output
+		converter.setLargeDocumentMode(largeDocumentMode);
+		converter.setMaxPagesPerPart(maxPagesPerPart);
+		converter.setMaxPartSize(maxPartSize);
+		converter.setFullCompression(fullCompression);
+		if (compressionLevel >= 0)
+			converter.setCompressionLevel(compressionLevel);
+		return converter;
+	}
+}
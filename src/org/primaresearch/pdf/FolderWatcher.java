@@ -0,0 +1,302 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a folder for new or changed PAGE XML files and document images and converts each page to a PDF
+ * as soon as both files are complete (one PDF per PAGE XML file, like <code>BatchConverter.convertPages</code>).<br>
+ * Only the files named in file system events are checked (the folders are listed once at the start and again only
+ * if events were lost). A page is converted when the XML and its image (found as in <code>CommandLineTool.findImage</code>)
+ * exist and their size and modification time have not changed for the quiet period. The conversions run on a fixed
+ * number of threads, each PDF is written under a temporary name and then renamed.
+ *
+ */
+public class FolderWatcher {
+	private static final String[] IMAGE_EXTENSIONS = new String[] {"tif", "tiff", "png", "jpg", "jpeg"};
+
+	private PageToPdfConverter converter;
+	private int threads;
+	private long quietPeriod = 1000;
+	private volatile WatchService watchService;
+	/** Pages waiting for their files to be complete, by filename without extension */
+	private Map<String, PendingPage> pending = new LinkedHashMap<String, PendingPage>();
+	/** Pages being converted */
+	private Set<String> converting = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Constructor
+	 * @param converter Configured converter to be used for all pages
+	 * @param threads Number of pages to convert in parallel
+	 */
+	public FolderWatcher(PageToPdfConverter converter, int threads) {
+		this.converter = converter;
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Time without changes to the XML and image file before a page is converted
+	 * @param millis Milliseconds (default: 1000)
+	 */
+	public void setQuietPeriod(long millis) {
+		this.quietPeriod = Math.max(0, millis);
+	}
+
+	/**
+	 * Converts the pages in the given folders and then all pages that are added or changed, until <code>stop</code>
+	 * is called or the thread is interrupted. Pages with a PDF that is newer than the XML and the image are skipped.
+	 * @param xmlFolder Folder that receives the PAGE XML files
+	 * @param imageFolder Folder that receives the images (filenames have to match the XML filenames, can be the XML folder)
+	 * @param outputFolder Folder for the PDF files
+	 */
+	public void watch(File xmlFolder, File imageFolder, File outputFolder) throws IOException {
+		outputFolder.mkdirs();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		watchService = FileSystems.getDefault().newWatchService();
+		try {
+			Path xmlPath = xmlFolder.toPath().toAbsolutePath();
+			Path imagePath = imageFolder.toPath().toAbsolutePath();
+			xmlPath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			if (!imagePath.equals(xmlPath))
+				imagePath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			System.out.println("Watching " + xmlPath + (imagePath.equals(xmlPath) ? "" : " and " + imagePath));
+
+			//Files that are already there (events are only sent for later changes)
+			addAll(xmlFolder);
+
+			while (true) {
+				WatchKey key;
+				try {
+					key = pending.isEmpty() ? watchService.take() : watchService.poll(Math.max(10, quietPeriod / 4), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException exc) {
+					break;
+				}
+				if (key != null) {
+					boolean overflow = false;
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+							overflow = true;
+						else
+							changed(event.context().toString(), key.watchable().equals(xmlPath), key.watchable().equals(imagePath), System.currentTimeMillis());
+					}
+					if (overflow)
+						addAll(xmlFolder);
+					key.reset();
+				}
+				submitCompletePages(xmlFolder, imageFolder, outputFolder, executor);
+			}
+		} catch (ClosedWatchServiceException exc) {
+			//Stopped
+		} finally {
+			watchService.close();
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Stops watching (conversions that have been started are finished)
+	 */
+	public void stop() {
+		try {
+			if (watchService != null)
+				watchService.close();
+		} catch (IOException exc) {
+			exc.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds all pages of the given folder to the pending pages (at the start and if events were lost)
+	 */
+	private void addAll(File xmlFolder) {
+		String[] xmlFiles = xmlFolder.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.toLowerCase().endsWith(".xml");
+			}
+		});
+		if (xmlFiles != null) {
+			long now = System.currentTimeMillis();
+			for (String name : xmlFiles)
+				changed(name, true, false, now);
+		}
+	}
+
+	/**
+	 * A file in the XML or image folder has been created or modified
+	 * @param now Time of the change in milliseconds
+	 */
+	void changed(String filename, boolean inXmlFolder, boolean inImageFolder, long now) {
+		int dot = filename.lastIndexOf('.');
+		if (dot <= 0)
+			return;
+		String extension = filename.substring(dot + 1);
+		boolean relevant = inXmlFolder && extension.equalsIgnoreCase("xml");
+		for (int i=0; i<IMAGE_EXTENSIONS.length && !relevant; i++)
+			relevant = inImageFolder && extension.equals(IMAGE_EXTENSIONS[i]);
+		if (!relevant)
+			return;
+		String name = filename.substring(0, dot);
+		PendingPage page = pending.get(name);
+		if (page == null) {
+			page = new PendingPage();
+			pending.put(name, page);
+		}
+		page.lastChange = now;
+	}
+
+	/**
+	 * Starts the conversion of the pending pages with XML and image files that have not changed for the quiet period
+	 */
+	private void submitCompletePages(File xmlFolder, File imageFolder, File outputFolder, ExecutorService executor) {
+		for (final PendingPage page : takeCompletePages(xmlFolder, imageFolder, outputFolder, System.currentTimeMillis())) {
+			converting.add(page.name);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						convert(page.xml, page.image, page.target);
+					} catch (Exception exc) {
+						exc.printStackTrace();
+					} finally {
+						converting.remove(page.name);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Takes the pages with XML and image files that have not changed for the quiet period from the
+	 * pending pages. Pages with a missing file are dropped (the event of the other file adds them again),
+	 * pages with a PDF that is newer than the XML and the image are skipped.
+	 * @param now Current time in milliseconds
+	 * @return Pages to convert (with XML, image and target file)
+	 */
+	List<PendingPage> takeCompletePages(File xmlFolder, File imageFolder, File outputFolder, long now) {
+		List<PendingPage> complete = new ArrayList<PendingPage>();
+		for (Iterator<Map.Entry<String, PendingPage>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, PendingPage> entry = it.next();
+			String name = entry.getKey();
+			PendingPage page = entry.getValue();
+			if (now - page.lastChange < quietPeriod || converting.contains(name))
+				continue;
+
+			//Both files present?
+			File xml = findXml(xmlFolder, name);
+			String imagePath = CommandLineTool.findImage(imageFolder.getPath() + File.separator + name + ".");
+			if (xml == null || imagePath == null) {
+				it.remove(); //The event of the other file adds the page again
+				continue;
+			}
+			File image = new File(imagePath);
+
+			//Unchanged since the last check?
+			String state = xml.length() + "|" + xml.lastModified() + "|" + image.length() + "|" + image.lastModified();
+			if (!state.equals(page.state)) {
+				page.state = state;
+				page.lastChange = now;
+				continue;
+			}
+			it.remove();
+
+			//Up to date?
+			File target = new File(outputFolder, BatchConverter.pdfFilename(xml.getName()));
+			if (target.lastModified() > Math.max(xml.lastModified(), image.lastModified()))
+				continue;
+
+			page.name = name;
+			page.xml = xml;
+			page.image = image;
+			page.target = target;
+			complete.add(page);
+		}
+		return complete;
+	}
+
+	/**
+	 * Converts one page, writing to a temporary file that replaces the target when the PDF is complete
+	 */
+	private void convert(File xml, File image, File target) throws IOException {
+		long start = System.nanoTime();
+		File part = new File(target.getParentFile(), target.getName() + ".part");
+		int pages = converter.convert(Collections.singletonList(new PageInput(xml.getPath(), image.getPath())).iterator(), part.getPath());
+		if (pages == 0) {
+			part.delete();
+			System.err.println("Failed: " + xml.getName());
+			return;
+		}
+		try {
+			Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException exc) {
+			Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		System.out.println(String.format("Converted %s (%.0f ms)", target.getName(), (System.nanoTime() - start) / 1000000.0));
+	}
+
+	private static File findXml(File xmlFolder, String name) {
+		for (String extension : new String[] {"xml", "XML"}) {
+			File f = new File(xmlFolder, name + "." + extension);
+			if (f.isFile())
+				return f;
+		}
+		return null;
+	}
+
+	/**
+	 * Page waiting for its files to be complete
+	 */
+	static class PendingPage {
+		/** Time of the last event or detected change */
+		long lastChange;
+		/** Size and modification time of XML and image at the last check */
+		String state;
+		/** Filename without extension and files (set when the page is complete) */
+		String name;
+		File xml;
+		File image;
+		File target;
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+/**
+ * Embedding policy for the TrueType font of the hidden text layer.
+ * (The default font Helvetica is a PDF standard font and never embedded.)
+ *
+ */
+public enum FontEmbedding {
+	/**
+	 * Font is only referenced by name. Uses the single-byte encoding CP1252,
+	 * characters outside this encoding cannot be represented in the text layer.
+	 */
+	NONE,
+	/**
+	 * Only the glyphs used in the document are embedded (Unicode encoding)
+	 */
+	SUBSET,
+	/**
+	 * The whole font program is embedded (Unicode encoding)
+	 */
+	FULL
+}
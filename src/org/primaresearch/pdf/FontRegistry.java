@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.BaseFont;
+
+/**
+ * Process-wide registry of the fonts used for the hidden text layer.<br>
+ * Each font (identified by font file and embedding policy) is loaded only once, together with its
+ * glyph metric tables, and then shared by all converter instances and threads.
+ *
+ */
+public class FontRegistry {
+	private static final FontRegistry instance = new FontRegistry();
+
+	private ConcurrentMap<String, FutureTask<RegisteredFont>> fonts = new ConcurrentHashMap<String, FutureTask<RegisteredFont>>();
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns the process-wide registry
+	 */
+	public static FontRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the specified font, loading it if necessary.
+	 * @param ttfFontFilePath True Type font file or <code>null</code> for Helvetica
+	 * @param embedding Embedding policy (determines encoding and which part of the font program is embedded)
+	 * @return The font
+	 * @throws IOException Font could not be loaded
+	 */
+	public BaseFont getFont(String ttfFontFilePath, FontEmbedding embedding) throws IOException {
+		return getRegisteredFont(ttfFontFilePath, embedding).font;
+	}
+
+	/**
+	 * Returns the specified font with its metric tables, loading it if necessary.
+	 */
+	RegisteredFont getRegisteredFont(final String ttfFontFilePath, final FontEmbedding embedding) throws IOException {
+		//Helvetica is a standard font (never embedded)
+		String key = ttfFontFilePath != null ? ttfFontFilePath + "|" + embedding : BaseFont.HELVETICA;
+
+		FutureTask<RegisteredFont> task = fonts.get(key);
+		if (task == null) {
+			FutureTask<RegisteredFont> newTask = new FutureTask<RegisteredFont>(new Callable<RegisteredFont>() {
+				@Override
+				public RegisteredFont call() throws Exception {
+					return new RegisteredFont(loadFont(ttfFontFilePath, embedding));
+				}
+			});
+			task = fonts.putIfAbsent(key, newTask);
+			if (task == null) {
+				//This thread loads the font, others wait for it
+				misses.incrementAndGet();
+				task = newTask;
+				task.run();
+			} else
+				hits.incrementAndGet();
+		} else
+			hits.incrementAndGet();
+
+		try {
+			return task.get();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IOException(exc);
+		} catch (ExecutionException exc) {
+			fonts.remove(key, task); //Allow another attempt
+			if (exc.getCause() instanceof IOException)
+				throw (IOException)exc.getCause();
+			throw new IOException(exc.getCause());
+		}
+	}
+
+	/**
+	 * Number of font requests that were served from the registry
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of font requests that required loading a font
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Removes all fonts and resets the statistics
+	 */
+	public void clear() {
+		fonts.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "Font registry: " + fonts.size() + " fonts, " + getHits() + " hits, " + getMisses() + " misses";
+	}
+
+	/**
+	 * Loads a font from file.
+	 * The font is not taken from the iText font cache, since the subset flag is set per instance.
+	 */
+	private static BaseFont loadFont(String ttfFontFilePath, FontEmbedding embedding) throws DocumentException, IOException {
+		if (ttfFontFilePath == null)
+			return BaseFont.createFont(BaseFont.HELVETICA, BaseFont.CP1252, BaseFont.NOT_EMBEDDED);
+
+		BaseFont font;
+		if (embedding == FontEmbedding.NONE)
+			font = BaseFont.createFont(ttfFontFilePath, BaseFont.CP1252, BaseFont.NOT_EMBEDDED, false, null, null);
+		else {
+			//Unicode encoding (the font is always embedded by iText)
+			font = BaseFont.createFont(ttfFontFilePath, BaseFont.IDENTITY_H, BaseFont.EMBEDDED, false, null, null);
+			font.setSubset(embedding == FontEmbedding.SUBSET);
+		}
+		return font;
+	}
+
+	/**
+	 * Font with its glyph metric tables
+	 */
+	static class RegisteredFont {
+		BaseFont font;
+		GlyphMetrics metrics;
+
+		RegisteredFont(BaseFont font) {
+			this.font = font;
+			this.metrics = new GlyphMetrics(font);
+		}
+	}
+}
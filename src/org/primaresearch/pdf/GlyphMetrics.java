@@ -0,0 +1,234 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import com.itextpdf.text.pdf.BaseFont;
+
+/**
+ * Glyph metric tables of a font (advance width, ascent and descent in 1/1000 text space units).<br>
+ * The tables are built once per font and give the same results as the corresponding <code>BaseFont</code>
+ * methods, without going through the font encoding for every character.
+ * Latin-1 characters are held in plain arrays, all other characters of the Basic Multilingual Plane
+ * in an open-addressing hash table. Instances are immutable and can be shared between threads.
+ *
+ */
+class GlyphMetrics {
+	private static final int LATIN_SIZE = 256;
+
+	private BaseFont font;
+	/** Font-wide ascent and descent (from the font descriptor) */
+	private float fontAscent;
+	private float fontDescent;
+	/** The font measures surrogate pairs as one character (TrueType with Unicode encoding) */
+	private boolean surrogatePairs;
+
+	private int[] latinWidths = new int[LATIN_SIZE];
+	private int[] latinAscents = new int[LATIN_SIZE];
+	private int[] latinDescents = new int[LATIN_SIZE];
+
+	//Hash table for all other characters (key 0 = empty slot)
+	private int[] keys;
+	private int[] widths;
+	private int[] ascents;
+	private int[] descents;
+	private int mask;
+
+	/**
+	 * Constructor (builds the tables)
+	 * @param font Font to measure
+	 */
+	GlyphMetrics(BaseFont font) {
+		this.font = font;
+		fontAscent = font.getFontDescriptor(BaseFont.ASCENT, 1000f);
+		fontDescent = font.getFontDescriptor(BaseFont.DESCENT, 1000f);
+		surrogatePairs = font.getFontType() == BaseFont.FONT_TYPE_TTUNI && !font.isFontSpecific();
+
+		//Latin
+		for (int c=0; c<LATIN_SIZE; c++) {
+			latinWidths[c] = font.getWidth(c);
+			int[] bbox = font.getCharBBox(c);
+			if (bbox != null) {
+				latinDescents[c] = bbox[1];
+				latinAscents[c] = bbox[3];
+			}
+		}
+
+		//All other characters of the BMP (only the ones with metrics)
+		int count = 0;
+		int[] tempKeys = new int[1024];
+		for (int c=LATIN_SIZE; c<=0xFFFF; c++) {
+			if (Character.isSurrogate((char)c))
+				continue;
+			if (font.getWidth(c) != 0 || font.getCharBBox(c) != null) {
+				if (count == tempKeys.length) {
+					int[] newKeys = new int[count * 2];
+					System.arraycopy(tempKeys, 0, newKeys, 0, count);
+					tempKeys = newKeys;
+				}
+				tempKeys[count++] = c;
+			}
+		}
+		int capacity = 16;
+		while (capacity < count * 2)
+			capacity *= 2;
+		mask = capacity - 1;
+		keys = new int[capacity];
+		widths = new int[capacity];
+		ascents = new int[capacity];
+		descents = new int[capacity];
+		for (int i=0; i<count; i++) {
+			int c = tempKeys[i];
+			int slot = slot(c);
+			while (keys[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = c;
+			widths[slot] = font.getWidth(c);
+			int[] bbox = font.getCharBBox(c);
+			if (bbox != null) {
+				descents[slot] = bbox[1];
+				ascents[slot] = bbox[3];
+			}
+		}
+	}
+
+	/**
+	 * Font the tables were built for
+	 */
+	BaseFont getFont() {
+		return font;
+	}
+
+	/**
+	 * Ascent of the font (not of specific characters), positive
+	 */
+	float getFontAscent() {
+		return fontAscent;
+	}
+
+	/**
+	 * Descent of the font (not of specific characters), usually negative
+	 */
+	float getFontDescent() {
+		return fontDescent;
+	}
+
+	/**
+	 * Advance width of the given text (as <code>BaseFont.getWidth(String)</code>)
+	 */
+	int getWidth(String text) {
+		int total = 0;
+		int len = text.length();
+		for (int k=0; k<len; k++) {
+			char c = text.charAt(k);
+			if (c < LATIN_SIZE)
+				total += latinWidths[c];
+			else if (surrogatePairs && Character.isHighSurrogate(c) && k+1 < len && Character.isLowSurrogate(text.charAt(k+1))) {
+				//Characters outside the BMP are rare, no table needed
+				total += font.getWidth(Character.toCodePoint(c, text.charAt(k+1)));
+				k++;
+			}
+			else {
+				int slot = find(c);
+				if (slot >= 0)
+					total += widths[slot];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Advance width of the given text in points (as <code>BaseFont.getWidthPoint(String, float)</code>)
+	 */
+	float getWidthPoint(String text, float fontSize) {
+		return getWidth(text) * 0.001f * fontSize;
+	}
+
+	/**
+	 * Maximum ascent of the characters of the given text (as <code>BaseFont.getAscent(String)</code>)
+	 */
+	int getAscent(String text) {
+		int max = 0;
+		for (int k=0; k<text.length(); k++) {
+			char c = text.charAt(k);
+			int ascent = 0;
+			if (c < LATIN_SIZE)
+				ascent = latinAscents[c];
+			else {
+				int slot = find(c);
+				if (slot >= 0)
+					ascent = ascents[slot];
+			}
+			if (ascent > max)
+				max = ascent;
+		}
+		return max;
+	}
+
+	/**
+	 * Minimum descent of the characters of the given text (as <code>BaseFont.getDescent(String)</code>)
+	 */
+	int getDescent(String text) {
+		int min = 0;
+		for (int k=0; k<text.length(); k++) {
+			char c = text.charAt(k);
+			int descent = 0;
+			if (c < LATIN_SIZE)
+				descent = latinDescents[c];
+			else {
+				int slot = find(c);
+				if (slot >= 0)
+					descent = descents[slot];
+			}
+			if (descent < min)
+				min = descent;
+		}
+		return min;
+	}
+
+	/**
+	 * Maximum ascent in points (as <code>BaseFont.getAscentPoint(String, float)</code>)
+	 */
+	float getAscentPoint(String text, float fontSize) {
+		return getAscent(text) * 0.001f * fontSize;
+	}
+
+	/**
+	 * Minimum descent in points (as <code>BaseFont.getDescentPoint(String, float)</code>)
+	 */
+	float getDescentPoint(String text, float fontSize) {
+		return getDescent(text) * 0.001f * fontSize;
+	}
+
+	/**
+	 * Returns the hash table slot of the given character or -1 if the font has no metrics for it
+	 */
+	private int find(int c) {
+		int slot = slot(c);
+		while (true) {
+			int key = keys[slot];
+			if (key == c)
+				return slot;
+			if (key == 0)
+				return -1;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int slot(int c) {
+		int h = c * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
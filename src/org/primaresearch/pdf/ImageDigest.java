@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies the image data of a page for deduplication: the image parameters and the section of the
+ * image file (or data) that the embedded image is created from.<br>
+ * Creating a digest does not read the image. Images are first compared by parameters and size (<code>getKey</code>)
+ * and by file; the content hash (SHA-256) is only calculated if two different files have the same key.
+ * Images are created from their source deterministically, so identical sources give identical image XObjects.
+ *
+ */
+class ImageDigest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private ImageSource source;
+	private long offset;
+	private long length;
+	private String parameters;
+	/** Content hash (calculated when first needed) */
+	private String hash;
+
+	/**
+	 * Constructor
+	 * @param source Image file or data
+	 * @param offset Start of the section the image is created from
+	 * @param length Length of the section
+	 * @param parameters Parameters that determine the image XObject in addition to the data (e.g. filter, frame)
+	 */
+	ImageDigest(ImageSource source, long offset, long length, String parameters) {
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Digest of an image that is loaded or recompressed from the given frame of an image file or data
+	 */
+	static ImageDigest of(ImageSource source, int frame) {
+		return new ImageDigest(source, 0, source.length(), "frame " + frame);
+	}
+
+	/**
+	 * Parameters and size (images with different keys are different)
+	 */
+	String getKey() {
+		return parameters + "|" + length;
+	}
+
+	/**
+	 * Returns <code>true</code> if both images are created from the same section of the same file
+	 * (without reading the file)
+	 */
+	boolean isSameSource(ImageDigest other) {
+		return source != null && other.source != null && source.getFile() != null
+				&& source.getFile().equals(other.source.getFile())
+				&& offset == other.offset && length == other.length && parameters.equals(other.parameters);
+	}
+
+	/**
+	 * Content hash of the parameters and data (reads the data when first called)
+	 */
+	String getHash() throws IOException {
+		if (hash == null) {
+			MessageDigest digest = newDigest();
+			digest.update(parameters.getBytes(UTF8));
+			SeekableByteChannel channel = source.openChannel();
+			try {
+				InputStream in = new ImagePassthrough.ChannelInputStream(channel, offset, length);
+				byte[] buffer = new byte[64 * 1024];
+				int n;
+				while ((n = in.read(buffer, 0, buffer.length)) > 0)
+					digest.update(buffer, 0, n);
+			} finally {
+				channel.close();
+			}
+			hash = toHex(digest.digest());
+		}
+		return hash;
+	}
+
+	/**
+	 * Called when the digest is kept for later comparisons. Image data in memory is hashed now
+	 * and then released (files are only read if needed).
+	 */
+	void keep() throws IOException {
+		if (source.getFile() == null) {
+			getHash();
+			source = null;
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException exc) {
+			//Every Java platform has to support SHA-256
+			throw new IllegalStateException(exc);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i=0; i<bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
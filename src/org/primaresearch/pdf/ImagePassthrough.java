@@ -0,0 +1,462 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+
+import com.itextpdf.text.BadElementException;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.PdfBoolean;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfNumber;
+import com.itextpdf.text.pdf.PdfStream;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/**
+ * Copies already compressed image data directly from the image file into the PDF,
+ * without decoding the image or reading the whole file into memory.<br>
+ * Supported are baseline/progressive JPEG (greyscale and RGB), JPEG 2000 and
+ * TIFF with a single CCITT G4 strip. For all other images <code>probe</code> returns <code>null</code>
+ * and the image has to be loaded with iText.
+ * <br><br>
+ * <code>probe</code> only reads the file header and can be called from any thread.
+ * <code>writeImage</code> streams the data from a channel to the PDF writer.
+ *
+ */
+class ImagePassthrough {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private ImageSource source;
+	private long offset;
+	private long length;
+	private int width;
+	private int height;
+	private PdfName filter;
+	private int components;
+	private boolean blackIs1;
+	private int dpi;
+
+	private ImagePassthrough(ImageSource source, PdfName filter, long offset, long length, int width, int height) {
+		this.source = source;
+		this.filter = filter;
+		this.offset = offset;
+		this.length = length;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Checks if the given image file can be copied to the PDF without decoding.
+	 * @param file Image file
+	 * @return Passthrough image or <code>null</code> if the image is not supported
+	 * @throws IOException Error reading the file header
+	 */
+	static ImagePassthrough probe(String file) throws IOException {
+		return probe(file, 0);
+	}
+
+	/**
+	 * Checks if the given frame of an image file can be copied to the PDF without decoding.
+	 * @param file Image file
+	 * @param frame Frame of a multi-page TIFF (0 for the first frame and for all other formats)
+	 * @return Passthrough image or <code>null</code> if the image is not supported
+	 * @throws IOException Error reading the file header
+	 */
+	static ImagePassthrough probe(String file, int frame) throws IOException {
+		return probe(new ImageSource(file), frame);
+	}
+
+	/**
+	 * Checks if the given frame of an image can be copied to the PDF without decoding.
+	 * @param source Image file or data
+	 * @param frame Frame of a multi-page TIFF (0 for the first frame and for all other formats)
+	 * @return Passthrough image or <code>null</code> if the image is not supported
+	 * @throws IOException Error reading the image header
+	 */
+	static ImagePassthrough probe(ImageSource source, int frame) throws IOException {
+		SeekableByteChannel channel = source.openChannel();
+		try {
+			ByteBuffer header = read(channel, 0, 12);
+			if (header.remaining() < 12)
+				return null;
+			int b0 = header.get(0) & 0xFF;
+			int b1 = header.get(1) & 0xFF;
+			if ((b0 == 'I' && b1 == 'I') || (b0 == 'M' && b1 == 'M'))
+				return probeTiff(source, channel, frame);
+			if (frame != 0)
+				return null;
+			if (b0 == 0xFF && b1 == 0xD8)
+				return probeJpeg(source, channel);
+			if (header.getInt(0) == 0x0000000C && header.getInt(4) == 0x6A502020)
+				return probeJp2(source, channel);
+			if (b0 == 0xFF && b1 == 0x4F)
+				return probeJ2k(source, channel);
+			return null;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Width in pixels
+	 */
+	int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Height in pixels
+	 */
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Horizontal resolution (TIFF only)
+	 * @return DPI or 0 if not available
+	 */
+	int getDpi() {
+		return dpi;
+	}
+
+	/**
+	 * Returns <code>true</code> for bi-level images
+	 */
+	boolean isBitonal() {
+		return PdfName.CCITTFAXDECODE.equals(filter);
+	}
+
+	/**
+	 * Writes the image XObject to the PDF (must be called from the writer thread).
+	 * @param writer PDF writer
+	 * @return Image referencing the written XObject (can be added to a content byte)
+	 */
+	Image writeImage(PdfWriter writer) throws IOException, DocumentException {
+		SeekableByteChannel channel = source.openChannel();
+		try {
+			PdfStream stream = new PdfStream(new ChannelInputStream(channel, offset, length), writer);
+			stream.put(PdfName.TYPE, PdfName.XOBJECT);
+			stream.put(PdfName.SUBTYPE, PdfName.IMAGE);
+			stream.put(PdfName.WIDTH, new PdfNumber(width));
+			stream.put(PdfName.HEIGHT, new PdfNumber(height));
+			stream.put(PdfName.FILTER, filter);
+			if (PdfName.DCTDECODE.equals(filter)) {
+				stream.put(PdfName.COLORSPACE, components == 1 ? PdfName.DEVICEGRAY : PdfName.DEVICERGB);
+				stream.put(PdfName.BITSPERCOMPONENT, new PdfNumber(8));
+			}
+			else if (PdfName.CCITTFAXDECODE.equals(filter)) {
+				stream.put(PdfName.COLORSPACE, PdfName.DEVICEGRAY);
+				stream.put(PdfName.BITSPERCOMPONENT, new PdfNumber(1));
+				PdfDictionary decodeParms = new PdfDictionary();
+				decodeParms.put(PdfName.K, new PdfNumber(-1));
+				if (blackIs1)
+					decodeParms.put(PdfName.BLACKIS1, PdfBoolean.PDFTRUE);
+				decodeParms.put(PdfName.COLUMNS, new PdfNumber(width));
+				decodeParms.put(PdfName.ROWS, new PdfNumber(height));
+				stream.put(PdfName.DECODEPARMS, decodeParms);
+			}
+			else if (PdfName.JPXDECODE.equals(filter)) {
+				//Colour space is taken from the JPEG 2000 data
+				writer.setAtLeastPdfVersion(PdfWriter.VERSION_1_5);
+			}
+			PdfIndirectReference ref = writer.addToBody(stream).getIndirectReference();
+			stream.writeLength();
+
+			return createReference(ref);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Creates a placeholder image with the dimensions of this image, referencing an already written XObject.
+	 * @param ref Reference to the image XObject
+	 */
+	Image createReference(PdfIndirectReference ref) throws BadElementException {
+		Image img = Image.getInstance(width, height, 3, 8, new byte[0]);
+		img.setDirectReference(ref);
+		return img;
+	}
+
+	/**
+	 * Digest of the image parameters and of the data that is copied to the PDF (does not read the data)
+	 */
+	ImageDigest getDigest() {
+		return new ImageDigest(source, offset, length, filter + "|" + width + "|" + height + "|" + components + "|" + blackIs1);
+	}
+
+	/**
+	 * JPEG: Reads the frame header (SOF). Only Huffman coded DCT images (SOF0 to SOF2) are passed through,
+	 * images with Adobe colour transform or ICC profile are not.
+	 */
+	private static ImagePassthrough probeJpeg(ImageSource source, SeekableByteChannel channel) throws IOException {
+		long pos = 2;
+		long size = channel.size();
+		while (pos + 4 <= size) {
+			ByteBuffer marker = read(channel, pos, 4);
+			if ((marker.get(0) & 0xFF) != 0xFF)
+				return null;
+			int type = marker.get(1) & 0xFF;
+			if (type == 0xFF) { //Fill byte
+				pos++;
+				continue;
+			}
+			int segmentLength = marker.getShort(2) & 0xFFFF;
+			if (type == 0xEE || type == 0xE2) //APP14 (Adobe) or APP2 (ICC profile)
+				return null;
+			//Lossless, hierarchical and arithmetic coded JPEGs are not supported by most PDF viewers
+			if (type >= 0xC3 && type <= 0xCF && type != 0xC4 && type != 0xC8 && type != 0xCC)
+				return null;
+			if (type >= 0xC0 && type <= 0xC2) { //Baseline, extended sequential or progressive (Huffman)
+				ByteBuffer sof = read(channel, pos + 4, 6);
+				if (sof.remaining() < 6)
+					return null;
+				int bpc = sof.get(0) & 0xFF;
+				int height = sof.getShort(1) & 0xFFFF;
+				int width = sof.getShort(3) & 0xFFFF;
+				int components = sof.get(5) & 0xFF;
+				if (bpc != 8 || (components != 1 && components != 3) || width == 0 || height == 0)
+					return null;
+				ImagePassthrough img = new ImagePassthrough(source, PdfName.DCTDECODE, 0, size, width, height);
+				img.components = components;
+				return img;
+			}
+			if (type == 0xD9 || type == 0xDA) //End of image or start of scan before frame header
+				return null;
+			pos += 2 + segmentLength;
+		}
+		return null;
+	}
+
+	/**
+	 * JPEG 2000 file format: Reads the image header box
+	 */
+	private static ImagePassthrough probeJp2(ImageSource source, SeekableByteChannel channel) throws IOException {
+		long size = channel.size();
+		long pos = 0;
+		while (pos + 8 <= size) {
+			ByteBuffer box = read(channel, pos, 16);
+			long boxLength = box.getInt(0) & 0xFFFFFFFFL;
+			int boxType = box.getInt(4);
+			int headerLength = 8;
+			if (boxLength == 1) {
+				boxLength = box.getLong(8);
+				headerLength = 16;
+			}
+			else if (boxLength == 0)
+				boxLength = size - pos;
+			if (boxLength < headerLength)
+				return null;
+			if (boxType == 0x6A703268) { //'jp2h' (super box)
+				pos += headerLength;
+				continue;
+			}
+			if (boxType == 0x69686472) { //'ihdr'
+				ByteBuffer ihdr = read(channel, pos + headerLength, 8);
+				if (ihdr.remaining() < 8)
+					return null;
+				int height = ihdr.getInt(0);
+				int width = ihdr.getInt(4);
+				if (width <= 0 || height <= 0)
+					return null;
+				return new ImagePassthrough(source, PdfName.JPXDECODE, 0, size, width, height);
+			}
+			pos += boxLength;
+		}
+		return null;
+	}
+
+	/**
+	 * JPEG 2000 code stream: Reads the image and tile size marker (SIZ)
+	 */
+	private static ImagePassthrough probeJ2k(ImageSource source, SeekableByteChannel channel) throws IOException {
+		ByteBuffer siz = read(channel, 2, 24);
+		if (siz.remaining() < 24 || (siz.getShort(0) & 0xFFFF) != 0xFF51)
+			return null;
+		long xsiz = siz.getInt(8) & 0xFFFFFFFFL;
+		long ysiz = siz.getInt(12) & 0xFFFFFFFFL;
+		long xosiz = siz.getInt(16) & 0xFFFFFFFFL;
+		long yosiz = siz.getInt(20) & 0xFFFFFFFFL;
+		int width = (int)(xsiz - xosiz);
+		int height = (int)(ysiz - yosiz);
+		if (width <= 0 || height <= 0)
+			return null;
+		return new ImagePassthrough(source, PdfName.JPXDECODE, 0, channel.size(), width, height);
+	}
+
+	/**
+	 * TIFF: Reads the image directory of the given frame (following the directory chain).
+	 * Only bi-level images with one CCITT G4 strip are passed through.
+	 */
+	private static ImagePassthrough probeTiff(ImageSource source, SeekableByteChannel channel, int frame) throws IOException {
+		ByteBuffer header = read(channel, 0, 8);
+		ByteOrder order = header.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		header.order(order);
+		if (header.getShort(2) != 42)
+			return null;
+		long ifdOffset = header.getInt(4) & 0xFFFFFFFFL;
+
+		ByteBuffer count = read(channel, ifdOffset, 2).order(order);
+		if (count.remaining() < 2)
+			return null;
+		int entryCount = count.getShort(0) & 0xFFFF;
+		for (int i=0; i<frame; i++) {
+			ByteBuffer next = read(channel, ifdOffset + 2 + entryCount * 12, 4).order(order);
+			if (next.remaining() < 4)
+				return null;
+			ifdOffset = next.getInt(0) & 0xFFFFFFFFL;
+			if (ifdOffset == 0)
+				return null; //Frame does not exist
+			count = read(channel, ifdOffset, 2).order(order);
+			if (count.remaining() < 2)
+				return null;
+			entryCount = count.getShort(0) & 0xFFFF;
+		}
+		ByteBuffer ifd = read(channel, ifdOffset + 2, entryCount * 12).order(order);
+		if (ifd.remaining() < entryCount * 12)
+			return null;
+
+		int width = 0, height = 0, compression = 1, photometric = 0, fillOrder = 1, samples = 1, bits = 1, orientation = 1;
+		long stripOffset = -1, stripLength = -1, t6Options = 0, resolutionOffset = -1;
+		int resolutionUnit = 2;
+		for (int i=0; i<entryCount; i++) {
+			int entry = i * 12;
+			int tag = ifd.getShort(entry) & 0xFFFF;
+			int type = ifd.getShort(entry + 2) & 0xFFFF;
+			long valueCount = ifd.getInt(entry + 4) & 0xFFFFFFFFL;
+			long value = type == 3 ? (ifd.getShort(entry + 8) & 0xFFFF) : (ifd.getInt(entry + 8) & 0xFFFFFFFFL);
+			switch (tag) {
+				case 256: width = (int)value; break;
+				case 257: height = (int)value; break;
+				case 258: bits = (int)value; break;
+				case 259: compression = (int)value; break;
+				case 262: photometric = (int)value; break;
+				case 266: fillOrder = (int)value; break;
+				case 273:
+					if (valueCount != 1)
+						return null;
+					stripOffset = value;
+					break;
+				case 274: orientation = (int)value; break;
+				case 277: samples = (int)value; break;
+				case 282:
+					if (type == 5)
+						resolutionOffset = value;
+					break;
+				case 296: resolutionUnit = (int)value; break;
+				case 279:
+					if (valueCount != 1)
+						return null;
+					stripLength = value;
+					break;
+				case 293: t6Options = value; break;
+				case 322: return null; //Tiles
+			}
+		}
+		if (compression != 4 || samples != 1 || bits != 1 || fillOrder != 1 || orientation != 1 || t6Options != 0
+				|| photometric > 1 || width <= 0 || height <= 0 || stripOffset < 0 || stripLength <= 0
+				|| stripOffset + stripLength > channel.size())
+			return null;
+
+		ImagePassthrough img = new ImagePassthrough(source, PdfName.CCITTFAXDECODE, stripOffset, stripLength, width, height);
+		img.blackIs1 = photometric == 1;
+
+		//Resolution (rational)
+		if (resolutionOffset >= 0 && (resolutionUnit == 2 || resolutionUnit == 3)) {
+			ByteBuffer resolution = read(channel, resolutionOffset, 8).order(order);
+			if (resolution.remaining() == 8) {
+				long numerator = resolution.getInt(0) & 0xFFFFFFFFL;
+				long denominator = resolution.getInt(4) & 0xFFFFFFFFL;
+				if (denominator > 0)
+					img.dpi = (int)Math.round((double)numerator / denominator * (resolutionUnit == 3 ? 2.54 : 1.0));
+			}
+		}
+		return img;
+	}
+
+	/**
+	 * Reads the specified bytes (or less at the end of the file)
+	 */
+	private static ByteBuffer read(SeekableByteChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, length));
+		channel.position(position);
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer);
+			if (n < 0)
+				break;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Input stream for a section of a file, read from a channel (that is not used otherwise)
+	 */
+	static class ChannelInputStream extends InputStream {
+		private SeekableByteChannel channel;
+		private long position;
+		private long end;
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		ChannelInputStream(SeekableByteChannel channel, long offset, long length) {
+			this.channel = channel;
+			this.position = offset;
+			this.end = offset + length;
+			buffer.limit(0);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill())
+				return -1;
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		private boolean fill() throws IOException {
+			if (buffer.hasRemaining())
+				return true;
+			if (position >= end)
+				return false;
+			buffer.clear();
+			buffer.limit((int)Math.min(BUFFER_SIZE, end - position));
+			channel.position(position);
+			int n = channel.read(buffer);
+			buffer.flip();
+			if (n <= 0)
+				return false;
+			position += n;
+			return true;
+		}
+	}
+}
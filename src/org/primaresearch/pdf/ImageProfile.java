@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+/**
+ * Output profile for the page image layer (resolution and compression).<br>
+ * With a profile other than <code>ORIGINAL</code> the page image is decoded, downsampled to the target
+ * resolution and compressed according to its content: bitonal images with CCITT G4 (or Flate),
+ * greyscale and colour images with JPEG.
+ *
+ */
+public class ImageProfile {
+	/** Image is embedded as is (no recompression) */
+	public static final ImageProfile ORIGINAL = new ImageProfile("original", 0, 0f);
+	/** Print quality (300 DPI) */
+	public static final ImageProfile PRINT = new ImageProfile("print", 300, 0.85f);
+	/** E-book reading (150 DPI) */
+	public static final ImageProfile EBOOK = new ImageProfile("ebook", 150, 0.75f);
+	/** Screen preview (96 DPI) */
+	public static final ImageProfile SCREEN = new ImageProfile("screen", 96, 0.6f);
+
+	private static final ImageProfile[] profiles = new ImageProfile[] { ORIGINAL, PRINT, EBOOK, SCREEN };
+
+	/** Resolution assumed for images without resolution information */
+	public static final int DEFAULT_SOURCE_DPI = 300;
+
+	private String name;
+	private int targetDpi;
+	private float jpegQuality;
+	private boolean detectBitonal;
+
+	/**
+	 * Constructor (with bitonal detection)
+	 * @param name Profile name
+	 * @param targetDpi Maximum image resolution (images are not upsampled). 0 for no recompression.
+	 * @param jpegQuality JPEG quality for greyscale and colour images (0.0 to 1.0)
+	 */
+	public ImageProfile(String name, int targetDpi, float jpegQuality) {
+		this(name, targetDpi, jpegQuality, true);
+	}
+
+	/**
+	 * Constructor
+	 * @param name Profile name
+	 * @param targetDpi Maximum image resolution (images are not upsampled). 0 for no recompression.
+	 * @param jpegQuality JPEG quality for greyscale and colour images (0.0 to 1.0)
+	 * @param detectBitonal If switched off, black and white images are compressed as greyscale JPEG
+	 */
+	public ImageProfile(String name, int targetDpi, float jpegQuality, boolean detectBitonal) {
+		this.name = name;
+		this.targetDpi = targetDpi;
+		this.jpegQuality = jpegQuality;
+		this.detectBitonal = detectBitonal;
+	}
+
+	/**
+	 * Returns the predefined profile with the given name (original, print, ebook, screen)
+	 * @return The profile or <code>null</code> if not found
+	 */
+	public static ImageProfile getProfile(String name) {
+		for (ImageProfile profile : profiles) {
+			if (profile.name.equalsIgnoreCase(name))
+				return profile;
+		}
+		return null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getTargetDpi() {
+		return targetDpi;
+	}
+
+	public float getJpegQuality() {
+		return jpegQuality;
+	}
+
+	/**
+	 * Returns <code>true</code> if the page image is to be recompressed
+	 */
+	public boolean isRecompress() {
+		return targetDpi > 0;
+	}
+
+	public boolean isDetectBitonal() {
+		return detectBitonal;
+	}
+
+	@Override
+	public String toString() {
+		return name + (isRecompress() ? " (" + targetDpi + " DPI, JPEG quality " + jpegQuality + ")" : "");
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.zip.Deflater;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.w3c.dom.Node;
+
+import com.itextpdf.text.BadElementException;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.ImgRaw;
+import com.itextpdf.text.pdf.codec.CCITTG4Encoder;
+
+/**
+ * Decodes a page image, downsamples it and compresses it according to an image profile.<br>
+ * Bitonal images are compressed with CCITT G4 (or Flate, if G4 does not reduce the size, e.g. for dithered images),
+ * greyscale and colour images with JPEG. Can be used from any thread.
+ *
+ */
+class ImageRecompressor {
+	/** Maximum difference between colour channels for a pixel to count as grey */
+	private static final int GREY_TOLERANCE = 24;
+	/** Maximum fraction of colour pixels in a greyscale image (scanner noise) */
+	private static final double COLOUR_PIXEL_FRACTION = 0.001;
+	/** Maximum fraction of mid-tone pixels in a bitonal image (anti-aliased edges) */
+	private static final double MIDTONE_PIXEL_FRACTION = 0.01;
+
+	private ImageProfile profile;
+
+	/**
+	 * Constructor
+	 * @param profile Image profile to apply
+	 */
+	ImageRecompressor(ImageProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Loads and recompresses the given image.
+	 * @param source Image file or data
+	 * @param frame Frame of a multi-page image (0 for the first)
+	 * @return The recompressed image or <code>null</code> if the image format is not supported by ImageIO
+	 * (e.g. CMYK or YCCK JPEG), if the image cannot be decoded or if recompression at the original resolution
+	 * would not reduce the size
+	 */
+	Image recompress(ImageSource source, int frame) throws IOException, BadElementException {
+		ImageInputStream in = source.openImageInputStream();
+		if (in == null)
+			return null;
+		BufferedImage src;
+		int sourceDpi = ImageProfile.DEFAULT_SOURCE_DPI;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext())
+				return null;
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, false);
+				try {
+					src = reader.read(frame);
+				} catch (IOException exc) {
+					//Not supported by the reader (e.g. Adobe CMYK/YCCK JPEG): the image is used as it is
+					return null;
+				}
+				if (src == null)
+					return null;
+				int dpi = getDpi(reader.getImageMetadata(frame));
+				if (dpi > 0)
+					sourceDpi = dpi;
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+		return recompress(src, sourceDpi, source.length());
+	}
+
+	/**
+	 * Recompresses the given image.
+	 * @param src Decoded image
+	 * @param sourceDpi Resolution of the image
+	 * @param originalSize Size of the image file (if the image is not downsampled, the
+	 *   recompressed image has to be smaller, otherwise <code>null</code> is returned)
+	 */
+	Image recompress(BufferedImage src, int sourceDpi, long originalSize) throws IOException, BadElementException {
+		//Target size (no upsampling)
+		int width = src.getWidth();
+		int height = src.getHeight();
+		boolean downsample = profile.getTargetDpi() < sourceDpi;
+		if (downsample) {
+			double factor = (double)profile.getTargetDpi() / sourceDpi;
+			width = Math.max(1, (int)Math.round(width * factor));
+			height = Math.max(1, (int)Math.round(height * factor));
+			downsample = width < src.getWidth() || height < src.getHeight();
+		}
+
+		//Content
+		CompressedImage result;
+		if (isGreyscale(src)) {
+			BufferedImage grey = convert(src, BufferedImage.TYPE_BYTE_GRAY);
+			if (profile.isDetectBitonal() && isBitonal(grey))
+				result = compressBitonal(scale(grey, width, height));
+			else
+				result = compressJpeg(scale(grey, width, height));
+		}
+		else
+			result = compressJpeg(scale(convert(src, BufferedImage.TYPE_INT_RGB), width, height));
+
+		if (!downsample && result.size >= originalSize)
+			return null;
+		return result.image;
+	}
+
+	/**
+	 * Returns <code>true</code> if (almost) all pixels are grey
+	 */
+	private static boolean isGreyscale(BufferedImage img) {
+		int type = img.getType();
+		if (type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_USHORT_GRAY || type == BufferedImage.TYPE_BYTE_BINARY)
+			return true;
+		int w = img.getWidth();
+		int h = img.getHeight();
+		long maxColourPixels = (long)(COLOUR_PIXEL_FRACTION * w * h);
+		long colourPixels = 0;
+		int[] row = new int[w];
+		for (int y=0; y<h; y++) {
+			img.getRGB(0, y, w, 1, row, 0, w);
+			for (int x=0; x<w; x++) {
+				int rgb = row[x];
+				int r = (rgb >> 16) & 0xFF;
+				int g = (rgb >> 8) & 0xFF;
+				int b = rgb & 0xFF;
+				if (Math.abs(r - g) > GREY_TOLERANCE || Math.abs(g - b) > GREY_TOLERANCE || Math.abs(r - b) > GREY_TOLERANCE) {
+					if (++colourPixels > maxColourPixels)
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if (almost) all pixels of the given greyscale image are black or white
+	 */
+	private static boolean isBitonal(BufferedImage grey) {
+		int w = grey.getWidth();
+		int h = grey.getHeight();
+		long maxMidtonePixels = (long)(MIDTONE_PIXEL_FRACTION * w * h);
+		long midtonePixels = 0;
+		byte[] row = new byte[w];
+		for (int y=0; y<h; y++) {
+			grey.getRaster().getDataElements(0, y, w, 1, row);
+			for (int x=0; x<w; x++) {
+				int g = row[x] & 0xFF;
+				if (g >= 48 && g < 208) {
+					if (++midtonePixels > maxMidtonePixels)
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts the given image to the given type (if necessary)
+	 */
+	private static BufferedImage convert(BufferedImage img, int type) {
+		if (img.getType() == type)
+			return img;
+		BufferedImage converted = new BufferedImage(img.getWidth(), img.getHeight(), type);
+		Graphics2D g = converted.createGraphics();
+		g.drawImage(img, 0, 0, null);
+		g.dispose();
+		return converted;
+	}
+
+	/**
+	 * Scales the image to the given size (keeping its type).
+	 * Large reductions are done in steps of 50% (bilinear interpolation alone would drop pixels).
+	 */
+	private static BufferedImage scale(BufferedImage img, int width, int height) {
+		BufferedImage current = img;
+		int w = img.getWidth();
+		int h = img.getHeight();
+		while (w != width || h != height) {
+			if (w / 2 >= width && h / 2 >= height) {
+				w /= 2;
+				h /= 2;
+			} else {
+				w = width;
+				h = height;
+			}
+			BufferedImage next = new BufferedImage(w, h, img.getType());
+			Graphics2D g = next.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(current, 0, 0, w, h, null);
+			g.dispose();
+			current = next;
+		}
+		return current;
+	}
+
+	/**
+	 * Thresholds the given greyscale image and compresses it with CCITT G4 or Flate (whichever is smaller)
+	 */
+	private static CompressedImage compressBitonal(BufferedImage grey) throws BadElementException {
+		int w = grey.getWidth();
+		int h = grey.getHeight();
+		int stride = (w + 7) / 8;
+		byte[] data = new byte[stride * h];
+		byte[] row = new byte[w];
+		for (int y=0; y<h; y++) {
+			grey.getRaster().getDataElements(0, y, w, 1, row);
+			int offset = y * stride;
+			for (int x=0; x<w; x++) {
+				if ((row[x] & 0xFF) < 128) //Black = 1
+					data[offset + (x >> 3)] |= (byte)(0x80 >> (x & 7));
+			}
+		}
+
+		byte[] g4 = CCITTG4Encoder.compress(data, w, h);
+		byte[] flate = deflate(data);
+		if (g4.length <= flate.length)
+			return new CompressedImage(Image.getInstance(w, h, false, Image.CCITTG4, 0, g4), g4.length);
+
+		//Already deflated, DeviceGray with decode array [1 0] (1 = black)
+		Image img = new ImgRaw(w, h, 1, 1, flate);
+		img.setDeflated(true);
+		img.setInverted(true);
+		return new CompressedImage(img, flate.length);
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 8 + 64);
+			byte[] buffer = new byte[16384];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Compresses the given greyscale or RGB image with JPEG
+	 */
+	private CompressedImage compressJpeg(BufferedImage img) throws IOException, BadElementException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(profile.getJpegQuality());
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(img, null, null), param);
+		} finally {
+			out.close();
+			writer.dispose();
+		}
+		return new CompressedImage(Image.getInstance(bytes.toByteArray()), bytes.size());
+	}
+
+	/**
+	 * Reads the horizontal resolution from the standard image metadata
+	 * @return DPI or 0 if not available
+	 */
+	private static int getDpi(IIOMetadata metadata) {
+		if (metadata == null || !metadata.isStandardMetadataFormatSupported())
+			return 0;
+		Node root = metadata.getAsTree("javax_imageio_1.0");
+		for (Node dimension = root.getFirstChild(); dimension != null; dimension = dimension.getNextSibling()) {
+			if (!"Dimension".equals(dimension.getNodeName()))
+				continue;
+			for (Node child = dimension.getFirstChild(); child != null; child = child.getNextSibling()) {
+				if (!"HorizontalPixelSize".equals(child.getNodeName()) || child.getAttributes() == null)
+					continue;
+				Node value = child.getAttributes().getNamedItem("value");
+				if (value == null)
+					continue;
+				try {
+					float mmPerPixel = Float.parseFloat(value.getNodeValue());
+					if (mmPerPixel > 0) {
+						int dpi = Math.round(25.4f / mmPerPixel);
+						//Ignore implausible values (e.g. aspect ratio only)
+						if (dpi >= 50 && dpi <= 2400)
+							return dpi;
+					}
+				} catch (NumberFormatException exc) {
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Compressed image with the size of the compressed data
+	 */
+	private static class CompressedImage {
+		Image image;
+		long size;
+
+		CompressedImage(Image image, long size) {
+			this.image = image;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import com.itextpdf.text.io.RandomAccessSource;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+
+/**
+ * Document image given as file or as encoded image data in memory (e.g. an upload that is not stored on disk).<br>
+ * The image readers need random access, so images from a stream are read into memory first.
+ *
+ */
+class ImageSource {
+	private String file;
+	private byte[] data;
+
+	/**
+	 * Constructor for an image file
+	 */
+	ImageSource(String file) {
+		this.file = file;
+	}
+
+	/**
+	 * Constructor for image data in memory
+	 * @param data Encoded image (TIFF, PNG, JPEG etc.), not copied
+	 */
+	ImageSource(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * Reads the given stream to the end (the stream is not closed)
+	 */
+	static ImageSource read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+		byte[] buffer = new byte[64 * 1024];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			bytes.write(buffer, 0, n);
+		return new ImageSource(bytes.toByteArray());
+	}
+
+	/**
+	 * Image file (<code>null</code> for data in memory)
+	 */
+	String getFile() {
+		return file;
+	}
+
+	/**
+	 * Image data in memory (<code>null</code> for a file)
+	 */
+	byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Size of the encoded image in bytes
+	 */
+	long length() {
+		return file != null ? new File(file).length() : data.length;
+	}
+
+	/**
+	 * Opens a channel for reading (has to be closed by the caller)
+	 */
+	SeekableByteChannel openChannel() throws IOException {
+		if (file != null)
+			return new RandomAccessFile(file, "r").getChannel();
+		return new ByteArrayChannel(data);
+	}
+
+	/**
+	 * Opens an ImageIO stream (has to be closed by the caller)
+	 * @return Stream or <code>null</code> if no stream provider is available
+	 */
+	ImageInputStream openImageInputStream() throws IOException {
+		if (file != null)
+			return ImageIO.createImageInputStream(new File(file));
+		return ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Creates an iText random access source (has to be closed by the caller)
+	 */
+	RandomAccessSource createRandomAccessSource() throws IOException {
+		if (file != null)
+			return new RandomAccessSourceFactory().createBestSource(file);
+		return new RandomAccessSourceFactory().createSource(data);
+	}
+
+	@Override
+	public String toString() {
+		return file != null ? file : "<" + data.length + " bytes>";
+	}
+
+	/**
+	 * Read-only channel for a byte array
+	 */
+	private static class ByteArrayChannel implements SeekableByteChannel {
+		private byte[] data;
+		private long position = 0;
+
+		ByteArrayChannel(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (data == null)
+				throw new ClosedChannelException();
+			if (position >= data.length)
+				return -1;
+			int n = (int)Math.min(dst.remaining(), data.length - position);
+			dst.put(data, (int)position, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() {
+			return position;
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) {
+			position = newPosition;
+			return this;
+		}
+
+		@Override
+		public long size() {
+			return data.length;
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return data != null;
+		}
+
+		@Override
+		public void close() {
+			data = null;
+		}
+	}
+}
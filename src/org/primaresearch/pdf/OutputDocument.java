@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfLayer;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/**
+ * PDF document that is being written, with the state shared by its pages
+ * (images already written, outline layers).<br>
+ * Either a new document or an existing PDF that pages are appended to (incremental update).
+ *
+ */
+class OutputDocument {
+	/** Outline levels (index of the optional content group) */
+	static final int REGION_OUTLINES = 0;
+	static final int TEXT_LINE_OUTLINES = 1;
+	static final int WORD_OUTLINES = 2;
+	static final int GLYPH_OUTLINES = 3;
+
+	private static final String[] outlineLayerNames = new String[] {
+		"Region outlines", "Text line outlines", "Word outlines", "Glyph outlines" };
+
+	Document document;
+	PdfWriter writer;
+	/** Stamper in append mode (<code>null</code> for a new document) */
+	private PdfStamper stamper;
+	/** Current page (append mode) */
+	private int pageNumber;
+	/** Images already written by key of the digest (<code>null</code> for no deduplication) */
+	private Map<String, List<WrittenImage>> writtenImages;
+	/** Number of pages written */
+	int pageCount = 0;
+	private PdfLayer[] outlineLayers = new PdfLayer[outlineLayerNames.length];
+
+	/**
+	 * Constructor
+	 * @param document Open document
+	 * @param writer Writer of the document
+	 * @param deduplicateImages Share image XObjects between pages with identical images
+	 */
+	OutputDocument(Document document, PdfWriter writer, boolean deduplicateImages) {
+		this(document, writer, deduplicateImages, 0);
+	}
+
+	/**
+	 * Constructor
+	 * @param document Open document
+	 * @param writer Writer of the document
+	 * @param deduplicateImages Share image XObjects between pages with identical images
+	 * @param maxImages Maximum number of written images that are remembered for deduplication
+	 *   (the least recently used are dropped), 0 for no limit
+	 */
+	OutputDocument(Document document, PdfWriter writer, boolean deduplicateImages, final int maxImages) {
+		this.document = document;
+		this.writer = writer;
+		if (deduplicateImages && maxImages > 0) {
+			writtenImages = new LinkedHashMap<String, List<WrittenImage>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, List<WrittenImage>> eldest) {
+					return size() > maxImages;
+				}
+			};
+		}
+		else if (deduplicateImages)
+			writtenImages = new HashMap<String, List<WrittenImage>>();
+	}
+
+	/**
+	 * Constructor for appending pages to an existing PDF
+	 * @param stamper Stamper in append mode
+	 * @param deduplicateImages Share image XObjects between the appended pages with identical images
+	 * @param maxImages Maximum number of written images that are remembered for deduplication, 0 for no limit
+	 */
+	OutputDocument(PdfStamper stamper, boolean deduplicateImages, int maxImages) {
+		this(null, stamper.getWriter(), deduplicateImages, maxImages);
+		this.stamper = stamper;
+	}
+
+	/**
+	 * Starts a new page
+	 * @param addPageBreak <code>false</code> for the first page of a new document (already started when the document was opened)
+	 */
+	void newPage(int width, int height, boolean addPageBreak) throws DocumentException {
+		if (stamper != null) {
+			pageNumber = stamper.getReader().getNumberOfPages() + 1;
+			stamper.insertPage(pageNumber, new Rectangle(width, height));
+		}
+		else if (addPageBreak) {
+			document.setPageSize(new Rectangle(width, height));
+			document.newPage();
+		}
+	}
+
+	/**
+	 * Content below the page content of the current page
+	 */
+	PdfContentByte getUnderContent() {
+		return stamper != null ? stamper.getUnderContent(pageNumber) : writer.getDirectContentUnder();
+	}
+
+	/**
+	 * Content above the page content of the current page
+	 */
+	PdfContentByte getOverContent() {
+		return stamper != null ? stamper.getOverContent(pageNumber) : writer.getDirectContent();
+	}
+
+	/**
+	 * Returns <code>true</code> if identical images are written only once
+	 */
+	boolean isDeduplicating() {
+		return writtenImages != null;
+	}
+
+	/**
+	 * Looks for an identical image that has already been written. The images are only hashed
+	 * if an image with the same parameters and size from a different file has been written.
+	 * @return Reference to the image XObject or <code>null</code>
+	 */
+	PdfIndirectReference findImage(ImageDigest digest) throws IOException {
+		List<WrittenImage> candidates = writtenImages.get(digest.getKey());
+		if (candidates == null)
+			return null;
+		for (WrittenImage written : candidates) {
+			if (written.digest.isSameSource(digest))
+				return written.ref;
+		}
+		for (WrittenImage written : candidates) {
+			if (written.digest.getHash().equals(digest.getHash()))
+				return written.ref;
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers a written image for deduplication
+	 * @param ref Reference to the image XObject
+	 */
+	void imageWritten(ImageDigest digest, PdfIndirectReference ref) throws IOException {
+		digest.keep();
+		List<WrittenImage> candidates = writtenImages.get(digest.getKey());
+		if (candidates == null) {
+			candidates = new ArrayList<WrittenImage>(1);
+			writtenImages.put(digest.getKey(), candidates);
+		}
+		candidates.add(new WrittenImage(digest, ref));
+	}
+
+	/**
+	 * Returns the optional content group for the given outline level (created when first used).
+	 * @param level Outline level (e.g. <code>REGION_OUTLINES</code>)
+	 */
+	PdfLayer getOutlineLayer(int level) throws IOException {
+		if (outlineLayers[level] == null) {
+			//Layer of a previous update
+			if (stamper != null)
+				outlineLayers[level] = stamper.getPdfLayers().get(outlineLayerNames[level]);
+			if (outlineLayers[level] == null) {
+				//Optional content requires PDF 1.5
+				writer.setAtLeastPdfVersion(PdfWriter.VERSION_1_5);
+				outlineLayers[level] = new PdfLayer(outlineLayerNames[level], writer);
+			}
+		}
+		return outlineLayers[level];
+	}
+
+	/**
+	 * Image XObject that has been written, with the digest of its data
+	 */
+	private static class WrittenImage {
+		ImageDigest digest;
+		PdfIndirectReference ref;
+
+		WrittenImage(ImageDigest digest, PdfIndirectReference ref) {
+			this.digest = digest;
+			this.ref = ref;
+		}
+	}
+}
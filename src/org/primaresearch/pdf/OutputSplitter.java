@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the output of a conversion into several PDF files (parts) by maximum page count and/or maximum
+ * estimated size, and writes the parts concurrently.<br>
+ * The size of a page is estimated before it is converted: size of the image (images are copied as they are
+ * or recompressed to a smaller size; multi-page images are shared by their pages), plus a share of the PAGE XML file for the text and outlines, plus an
+ * allowance for the page objects. Each part additionally contains the embedded font.
+ * A page that exceeds the maximum size on its own is written to a part of its own.<br>
+ * The maximum size is therefore a limit for the estimate, not a guarantee: images that are decoded and compressed
+ * again (e.g. PNG, LZW TIFF or an image profile that cannot reduce the size) and scripts with many glyphs
+ * (large font subsets) can make a part larger.
+ *
+ */
+class OutputSplitter {
+	/** Estimated size of the page objects, in addition to image, text and outlines (bytes) */
+	static final long PAGE_ALLOWANCE = 2048;
+	/** Estimated size of the document structure of a part (catalog, page tree, font dictionaries) */
+	static final long PART_ALLOWANCE = 16 * 1024;
+	/** Estimated size of the text and outlines relative to the size of the PAGE XML file (compressed content streams) */
+	static final int XML_SIZE_DIVISOR = 24;
+	/** Estimated size of an embedded font subset relative to the size of the font file (about 1/20 for Latin text, rounded up) */
+	static final int FONT_SUBSET_DIVISOR = 16;
+
+	private PageToPdfConverter converter;
+	private int maxPages;
+	private long maxBytes;
+	private long fontSize;
+	private int threads;
+
+	/**
+	 * Constructor
+	 * @param converter Converter for the parts
+	 * @param maxPages Maximum number of pages per part (0 for no limit)
+	 * @param maxBytes Maximum estimated size of a part in bytes (0 for no limit)
+	 * @param fontSize Estimated size of the embedded font per part (see <code>estimateFontSize</code>)
+	 * @param threads Number of parts written concurrently
+	 */
+	OutputSplitter(PageToPdfConverter converter, int maxPages, long maxBytes, long fontSize, int threads) {
+		this.converter = converter;
+		this.maxPages = maxPages;
+		this.maxBytes = maxBytes;
+		this.fontSize = fontSize;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Converts the given pages to parts
+	 * @param inputs Page inputs
+	 * @param targetPdf Output PDF file, the parts are named after it (see <code>getPartFilename</code>)
+	 * @return Parts that have been written and number of pages
+	 */
+	SplitResult convert(List<PageInput> inputs, String targetPdf) {
+		List<List<PageInput>> parts = plan(inputs);
+		List<String> partFiles = new ArrayList<String>();
+		SplitResult result = new SplitResult();
+		if (parts.isEmpty())
+			return result;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, parts.size()));
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i=0; i<parts.size(); i++) {
+				final List<PageInput> part = parts.get(i);
+				final String partFile = getPartFilename(targetPdf, i + 1);
+				partFiles.add(partFile);
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return converter.convertPart(part.iterator(), partFile);
+					}
+				}));
+			}
+			//Wait for all parts, keep the parts that have pages
+			for (int i=0; i<results.size(); i++) {
+				try {
+					int pages = results.get(i).get();
+					if (pages > 0) {
+						result.partFiles.add(partFiles.get(i));
+						result.pageCount += pages;
+					}
+				} catch (ExecutionException exc) {
+					exc.getCause().printStackTrace();
+				}
+			}
+			return result;
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(exc);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Distributes the given pages to parts, in order
+	 * @return Pages per part
+	 */
+	List<List<PageInput>> plan(List<PageInput> inputs) {
+		//Pages per image file (multi-page TIFF)
+		Map<String, Integer> imageUsage = new HashMap<String, Integer>();
+		for (PageInput input : inputs) {
+			if (input.getImageFile() != null) {
+				Integer count = imageUsage.get(input.getImageFile());
+				imageUsage.put(input.getImageFile(), count != null ? count + 1 : 1);
+			}
+		}
+
+		List<List<PageInput>> parts = new ArrayList<List<PageInput>>();
+		List<PageInput> part = null;
+		long partSize = 0;
+		for (PageInput input : inputs) {
+			Integer pagesPerImage = input.getImageFile() != null ? imageUsage.get(input.getImageFile()) : null;
+			long pageSize = estimateSize(input, pagesPerImage != null ? pagesPerImage : 1);
+			if (part == null
+					|| (maxPages > 0 && part.size() >= maxPages)
+					|| (maxBytes > 0 && partSize + pageSize > maxBytes)) {
+				part = new ArrayList<PageInput>();
+				parts.add(part);
+				partSize = PART_ALLOWANCE + fontSize;
+			}
+			part.add(input);
+			partSize += pageSize;
+		}
+		return parts;
+	}
+
+	/**
+	 * Estimated size of the embedded font in each part
+	 * @param fontFile TrueType font file (<code>null</code> for the standard font, which is not embedded)
+	 */
+	static long estimateFontSize(String fontFile, FontEmbedding embedding) {
+		if (fontFile == null || embedding == FontEmbedding.NONE)
+			return 0;
+		long size = new File(fontFile).length();
+		return embedding == FontEmbedding.SUBSET ? size / FONT_SUBSET_DIVISOR : size;
+	}
+
+	/**
+	 * Estimated size of the given page in the PDF
+	 * @param pagesPerImage Number of pages that share the image file
+	 */
+	static long estimateSize(PageInput input, int pagesPerImage) {
+		long size = input.getImageSource().length() / pagesPerImage + PAGE_ALLOWANCE;
+		if (input.getXmlFile() != null)
+			size += new File(input.getXmlFile()).length() / XML_SIZE_DIVISOR;
+		return size;
+	}
+
+	/**
+	 * Parts that have been written
+	 */
+	static class SplitResult {
+		/** Part files in page order */
+		List<String> partFiles = new ArrayList<String>();
+		/** Number of pages in all parts */
+		int pageCount;
+	}
+
+	/**
+	 * Filename of a part, e.g. <code>book_001.pdf</code> for part 1 of <code>book.pdf</code>
+	 * @param targetPdf Output PDF file
+	 * @param part Number of the part (starting with 1)
+	 */
+	static String getPartFilename(String targetPdf, int part) {
+		String base = targetPdf;
+		String extension = "";
+		int dot = targetPdf.lastIndexOf('.');
+		if (dot > targetPdf.lastIndexOf(File.separatorChar) && dot > targetPdf.lastIndexOf('/')) {
+			base = targetPdf.substring(0, dot);
+			extension = targetPdf.substring(dot);
+		}
+		return String.format("%s_%03d%s", base, part, extension);
+	}
+}
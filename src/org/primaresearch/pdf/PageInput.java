@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
+
+/**
+ * Input for one PDF page: PAGE XML file and document image (or one frame of a multi-page TIFF).<br>
+ * The page object model is only loaded when the converter gets to this page,
+ * so that a long list of inputs does not occupy any memory for page content.<br>
+ * Alternatively, the input can be a page that is already loaded, with the image data in memory
+ * (e.g. for converting uploads without storing them on disk).
+ *
+ */
+public class PageInput {
+	private String xmlFile;
+	private String imageFile;
+	private int imageFrame;
+	private Page page;
+	private byte[] imageData;
+
+	/**
+	 * Constructor
+	 * @param xmlFile PAGE XML file
+	 * @param imageFile Document image file
+	 */
+	public PageInput(String xmlFile, String imageFile) {
+		this(xmlFile, imageFile, 0);
+	}
+
+	/**
+	 * Constructor for multi-page images
+	 * @param xmlFile PAGE XML file
+	 * @param imageFile Multi-page TIFF file
+	 * @param imageFrame Index of the frame within the image file (0 for the first frame)
+	 */
+	public PageInput(String xmlFile, String imageFile, int imageFrame) {
+		this.xmlFile = xmlFile;
+		this.imageFile = imageFile;
+		this.imageFrame = imageFrame;
+	}
+
+	/**
+	 * Constructor for a loaded page
+	 * @param page Page object
+	 * @param imageFile Document image file
+	 */
+	public PageInput(Page page, String imageFile) {
+		this.page = page;
+		this.imageFile = imageFile;
+	}
+
+	/**
+	 * Constructor for a loaded page with the document image in memory
+	 * @param page Page object
+	 * @param imageData Encoded document image (TIFF, PNG, JPEG etc.), not copied
+	 */
+	public PageInput(Page page, byte[] imageData) {
+		this(page, imageData, 0);
+	}
+
+	/**
+	 * Constructor for a loaded page with a multi-page image in memory
+	 * @param page Page object
+	 * @param imageData Multi-page TIFF, not copied
+	 * @param imageFrame Index of the frame within the image (0 for the first frame)
+	 */
+	public PageInput(Page page, byte[] imageData, int imageFrame) {
+		this.page = page;
+		this.imageData = imageData;
+		this.imageFrame = imageFrame;
+	}
+
+	/**
+	 * PAGE XML file (<code>null</code> for a loaded page)
+	 */
+	public String getXmlFile() {
+		return xmlFile;
+	}
+
+	/**
+	 * Document image file (<code>null</code> for image data in memory)
+	 */
+	public String getImageFile() {
+		return imageFile;
+	}
+
+	/**
+	 * Document image file or data
+	 */
+	ImageSource getImageSource() {
+		return imageData != null ? new ImageSource(imageData) : new ImageSource(imageFile);
+	}
+
+	/**
+	 * Index of the frame within the image file (0 for single images)
+	 */
+	public int getImageFrame() {
+		return imageFrame;
+	}
+
+	/**
+	 * Reads the PAGE XML file (or returns the loaded page)
+	 * @return Page object
+	 * @throws Exception Parsing error
+	 */
+	public Page loadPage() throws Exception {
+		if (page != null)
+			return page;
+		return PageXmlInputOutput.readPage(xmlFile);
+	}
+
+	@Override
+	public String toString() {
+		return xmlFile != null ? xmlFile : "Loaded page";
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+/**
+ * Timings (per stage, in nanoseconds) and content counts of one converted page.
+ * Reported to the <code>ConversionListener</code> after the page has been written.
+ *
+ */
+public class PageStatistics {
+	String xmlFile;
+	String imageFile;
+	int pageNumber;
+	long xmlLoadTime;
+	long imageTime;
+	long textTime;
+	long[] outlineTimes = new long[4];
+	long writeTime;
+	int textObjects;
+	int glyphs;
+	int polygons;
+	int polygonVertices;
+
+	/**
+	 * PAGE XML file (<code>null</code> if the page object was passed to the converter directly)
+	 */
+	public String getXmlFile() {
+		return xmlFile;
+	}
+
+	/**
+	 * Document image file
+	 */
+	public String getImageFile() {
+		return imageFile;
+	}
+
+	/**
+	 * Number of the page within the PDF (starting with 1)
+	 */
+	public int getPageNumber() {
+		return pageNumber;
+	}
+
+	/**
+	 * Time for parsing the PAGE XML (0 if the page object was passed to the converter directly)
+	 */
+	public long getXmlLoadTime() {
+		return xmlLoadTime;
+	}
+
+	/**
+	 * Time for loading, decoding or recompressing the image
+	 */
+	public long getImageTime() {
+		return imageTime;
+	}
+
+	/**
+	 * Time for the hidden text layer (font fitting and positioning)
+	 */
+	public long getTextTime() {
+		return textTime;
+	}
+
+	/**
+	 * Time for the outlines of the given level
+	 * @param level 0 = regions, 1 = text lines, 2 = words, 3 = glyphs
+	 */
+	public long getOutlineTime(int level) {
+		return outlineTimes[level];
+	}
+
+	/**
+	 * Time for writing the page to the PDF (including image data and flushing the previous page)
+	 */
+	public long getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * Total time of all stages
+	 */
+	public long getTotalTime() {
+		long total = xmlLoadTime + imageTime + textTime + writeTime;
+		for (long time : outlineTimes)
+			total += time;
+		return total;
+	}
+
+	/**
+	 * Number of layout objects with text in the hidden text layer
+	 */
+	public int getTextObjects() {
+		return textObjects;
+	}
+
+	/**
+	 * Number of characters (code points) in the hidden text layer
+	 */
+	public int getGlyphs() {
+		return glyphs;
+	}
+
+	/**
+	 * Number of outline polygons (all levels)
+	 */
+	public int getPolygons() {
+		return polygons;
+	}
+
+	/**
+	 * Number of outline polygon vertices (all levels)
+	 */
+	public int getPolygonVertices() {
+		return polygonVertices;
+	}
+}
@@ -15,11 +15,20 @@
  */
 package org.primaresearch.pdf;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.primaresearch.dla.page.Page;
 import org.primaresearch.dla.page.layout.physical.ContentIterator;
@@ -35,15 +44,24 @@ import org.primaresearch.maths.geometry.Polygon;
 import org.primaresearch.maths.geometry.Rect;
 
 import com.itextpdf.text.BaseColor;
-import com.itextpdf.text.Chunk;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
-import com.itextpdf.text.Font;
-import com.itextpdf.text.FontFactory;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.PRStream;
 import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfNumber;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.PdfStream;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import com.itextpdf.text.pdf.codec.TiffImage;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
 import com.itextpdf.text.pdf.PdfWriter;
 
 /**
@@ -55,13 +73,47 @@ import com.itextpdf.text.pdf.PdfWriter;
  */
 public class PageToPdfConverter {
 	//private boolean DEBUG = true;
+
+	//Outline colours
+	private static final BaseColor COLOR_TEXT_LINE = new BaseColor(50, 205, 50);
+	private static final BaseColor COLOR_WORD = new BaseColor(178, 34, 34);
+	private static final BaseColor COLOR_GLYPH = new BaseColor(46, 139, 8);
+	private static final BaseColor COLOR_TEXT_REGION = new BaseColor(0, 0, 255);
+	private static final BaseColor COLOR_CHART = new BaseColor(128, 0, 128);
+	private static final BaseColor COLOR_GRAPHIC = new BaseColor(0,128,0);
+	private static final BaseColor COLOR_IMAGE = new BaseColor(0,206,209);
+	private static final BaseColor COLOR_LINE_DRAWING = new BaseColor(184, 134, 11);
+	private static final BaseColor COLOR_MATHS = new BaseColor(0, 191, 255);
+	private static final BaseColor COLOR_NOISE = new BaseColor(255, 0, 0);
+	private static final BaseColor COLOR_SEPARATOR = new BaseColor(255, 0, 255);
+	private static final BaseColor COLOR_TABLE = new BaseColor(139, 69, 19);
+	private static final BaseColor COLOR_ADVERT = new BaseColor(70, 130, 180);
+	private static final BaseColor COLOR_CHEM = new BaseColor(255, 140,   0);
+	private static final BaseColor COLOR_MUSIC = new BaseColor(148,   0, 211);
+	/** Number of images remembered for deduplication in large-document mode */
+	private static final int LARGE_DOCUMENT_IMAGE_CACHE = 1000;
+
 	ContentType textLevel;
 	private String ttfFontFilePath = null;
-	private BaseFont font;
+	private FontEmbedding fontEmbedding = FontEmbedding.SUBSET;
+	private TextFitting textFitting = TextFitting.FONT_SIZE;
+	private volatile BaseFont font;
+	private volatile GlyphMetrics metrics;
 	private boolean addRegionOutlines;
 	private boolean addTextLineOutlines;
 	private boolean addWordOutlines;
 	private boolean addGlyphOutlines;
+	private int workerThreads = 1;
+	private boolean imagePassthrough = true;
+	private boolean imageDeduplication = true;
+	private ImageProfile imageProfile = ImageProfile.ORIGINAL;
+	private boolean fullCompression = false;
+	private int compressionLevel = PdfStream.DEFAULT_COMPRESSION;
+	private boolean streamingXmlReader = false;
+	private boolean largeDocumentMode = false;
+	private int maxPagesPerPart = 0;
+	private long maxPartSize = 0;
+	private ConversionListener listener = null;
 
 	/**
 	 * Constructor
@@ -88,13 +140,37 @@ public class PageToPdfConverter {
 	 * Converts a list of pages to PDF
 	 * @param pages
 	 * @param imageFiles
-	 * @param targetPdf
+	 * @param targetPdf Output PDF file (or name of the parts, see <code>setMaxPagesPerPart</code>)
 	 */
 	public void convert(List<Page> pages, List<String> imageFiles, String targetPdf) {
+		if (isSplitting()) {
+			List<PageInput> inputs = new ArrayList<PageInput>(pages.size());
+			for (int i=0; i<pages.size(); i++)
+				inputs.add(new PageInput(pages.get(i), imageFiles.get(i)));
+			convertToParts(inputs, targetPdf);
+		}
+		else
+			convertPages(pages, imageFiles, targetPdf, null);
+	}
+
+	/**
+	 * Converts a list of pages to PDF
+	 * @param pages
+	 * @param imageFiles
+	 * @param target Output stream for the PDF (flushed but not closed)
+	 */
+	public void convert(List<Page> pages, List<String> imageFiles, OutputStream target) {
+		convertPages(pages, imageFiles, null, target);
+	}
+
+	/**
+	 * Converts a list of pages to the given PDF file or stream
+	 */
+	private void convertPages(List<Page> pages, List<String> imageFiles, String targetPdf, OutputStream target) {
 
 		Document document = null;
 		try {
-			PdfWriter writer = null;
+			OutputDocument output = null;
 		    
 			//Add pages
 		    createFont();
@@ -102,17 +178,132 @@ public class PageToPdfConverter {
 			for (int i=0; i<pages.size(); i++) {
 				if (document == null) {
 					document = new Document(new Rectangle(pages.get(i).getLayout().getWidth(), pages.get(i).getLayout().getHeight()));
-					writer = PdfWriter.getInstance(document, new FileOutputStream(targetPdf));
+					PdfWriter writer = createWriter(document, targetPdf, target);
 					document.open();
+					output = new OutputDocument(document, writer, imageDeduplication, getImageCacheSize());
 				}
-				addPage(writer, document, pages.get(i), imageFiles.get(i), addPageBreak);
+				addPage(output, pages.get(i), new ImageSource(imageFiles.get(i)), addPageBreak);
 				addPageBreak = true;
 			}
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		} finally {
-		    document.close();
+			if (document != null)
+				document.close();
+		}
+	}
+
+	/**
+	 * Converts a sequence of pages to PDF, one page at a time.<br>
+	 * Each page is parsed, rendered and then released before the next input is requested,
+	 * so the memory used is independent of the number of pages.
+	 * @param inputs Page inputs (PAGE XML and image)
+	 * @param targetPdf Output PDF file (or name of the parts, see <code>setMaxPagesPerPart</code>)
+	 * @return Number of pages written
+	 */
+	public int convert(Iterator<PageInput> inputs, String targetPdf) {
+		if (isSplitting()) {
+			List<PageInput> list = new ArrayList<PageInput>();
+			while (inputs.hasNext())
+				list.add(inputs.next());
+			return convertToParts(list, targetPdf).pageCount;
 		}
+		return convertPages(inputs, targetPdf, null, workerThreads, 1, null);
+	}
+
+	/**
+	 * Converts a sequence of pages to the given PDF file. Pages that fail (e.g. I/O errors) are prepared again
+	 * and added at their position in the document.
+	 * @param pageAttempts Number of times a page is prepared before it counts as failed (and is left out)
+	 * @param failedPages Receives the PAGE XML files of the pages that failed (the conversion listener is notified as well)
+	 * @return Number of pages written
+	 */
+	int convert(Iterator<PageInput> inputs, String targetPdf, int pageAttempts, List<String> failedPages) {
+		return convertPages(inputs, targetPdf, null, workerThreads, pageAttempts, failedPages);
+	}
+
+	/**
+	 * Converts a sequence of pages to PDF, one page at a time (see <code>convert(Iterator, String)</code>).<br>
+	 * The PDF is written to the stream while the pages are converted, e.g. directly to an HTTP response.
+	 * @param inputs Page inputs (PAGE XML and image)
+	 * @param target Output stream for the PDF (flushed but not closed)
+	 * @return Number of pages written (nothing is written to the stream if there are no pages)
+	 */
+	public int convert(Iterator<PageInput> inputs, OutputStream target) {
+		return convertPages(inputs, null, target, workerThreads, 1, null);
+	}
+
+	/**
+	 * Converts a sequence of pages to PDF, one page at a time (see <code>convert(Iterator, String)</code>).
+	 * @param inputs Page inputs (PAGE XML and image)
+	 * @param target Blocking channel for the PDF (not closed)
+	 * @return Number of pages written (nothing is written to the channel if there are no pages)
+	 */
+	public int convert(Iterator<PageInput> inputs, WritableByteChannel target) {
+		return convertPages(inputs, null, Channels.newOutputStream(target), workerThreads, 1, null);
+	}
+
+	/**
+	 * Converts the given pages to parts (several PDF files) concurrently
+	 * @param inputs Page inputs
+	 * @param targetPdf Output PDF file (name of the parts)
+	 * @return Parts written and number of pages
+	 */
+	OutputSplitter.SplitResult convertToParts(List<PageInput> inputs, String targetPdf) {
+		long fontSize = OutputSplitter.estimateFontSize(ttfFontFilePath, fontEmbedding);
+		OutputSplitter splitter = new OutputSplitter(this, maxPagesPerPart, maxPartSize, fontSize, workerThreads);
+		return splitter.convert(inputs, targetPdf);
+	}
+
+	/**
+	 * Converts the pages of one part (called by the splitter, the parts are written concurrently)
+	 * @return Number of pages written
+	 */
+	int convertPart(Iterator<PageInput> inputs, String partPdf) {
+		return convertPages(inputs, partPdf, null, 1, 1, null);
+	}
+
+	/**
+	 * Converts a sequence of pages to the given PDF file or stream
+	 * @param threads Number of threads preparing pages
+	 * @param pageAttempts Number of times a page is prepared before it counts as failed
+	 * @param failedPages Receives the PAGE XML files of the pages that failed (<code>null</code> if not needed)
+	 */
+	private int convertPages(Iterator<PageInput> inputs, String targetPdf, OutputStream target, int threads, int pageAttempts, List<String> failedPages) {
+
+		Document document = null;
+		PreparationPipeline pipeline = null;
+		int pageCount = 0;
+		try {
+			OutputDocument output = null;
+
+			//Add pages
+			createFont();
+			pipeline = new PreparationPipeline(this, inputs, threads, pageAttempts, failedPages);
+			boolean addPageBreak = false;
+			while (pipeline.hasNext()) {
+				PreparedPage prepared = pipeline.next();
+				if (prepared == null)
+					continue;
+				if (document == null) {
+					document = new Document(new Rectangle(prepared.width, prepared.height));
+					PdfWriter writer = createWriter(document, targetPdf, target);
+					document.open();
+					output = new OutputDocument(document, writer, imageDeduplication, getImageCacheSize());
+				}
+				writePage(output, prepared, addPageBreak);
+				addPageBreak = true;
+				pageCount++;
+			}
+		} catch (Exception exc) {
+			exc.printStackTrace();
+		} finally {
+			if (pipeline != null)
+				pipeline.close();
+			if (document != null)
+				document.close();
+		}
+		return pageCount;
 	}
 
 	/**
@@ -122,13 +313,57 @@ public class PageToPdfConverter {
 	 * @param targetPdf
 	 */
 	public void convert(Page page, String imageFile, String targetPdf) {
+		convertPage(page, new ImageSource(imageFile), targetPdf, null);
+	}
+
+	/**
+	 * Converts a single page to PDF
+	 * @param page
+	 * @param imageFile
+	 * @param target Output stream for the PDF (flushed but not closed)
+	 */
+	public void convert(Page page, String imageFile, OutputStream target) {
+		convertPage(page, new ImageSource(imageFile), null, target);
+	}
+
+	/**
+	 * Converts a single page to PDF, with the document image in memory
+	 * @param page
+	 * @param image Encoded document image (TIFF, PNG, JPEG etc.)
+	 * @param target Output stream for the PDF (flushed but not closed)
+	 */
+	public void convert(Page page, byte[] image, OutputStream target) {
+		convertPage(page, new ImageSource(image), null, target);
+	}
+
+	/**
+	 * Converts a single page to PDF, reading the document image from a stream
+	 * @param page
+	 * @param image Encoded document image (read to the end and into memory, not closed)
+	 * @param target Output stream for the PDF (flushed but not closed)
+	 */
+	public void convert(Page page, InputStream image, OutputStream target) {
+		ImageSource source;
+		try {
+			source = ImageSource.read(image);
+		} catch (IOException exc) {
+			exc.printStackTrace();
+			return;
+		}
+		convertPage(page, source, null, target);
+	}
+
+	/**
+	 * Converts a single page to the given PDF file or stream
+	 */
+	private void convertPage(Page page, ImageSource image, String targetPdf, OutputStream target) {
 		Document document = new Document(new Rectangle(page.getLayout().getWidth(), page.getLayout().getHeight()));
 		try {
-		    PdfWriter writer = PdfWriter.getInstance(document, new FileOutputStream(targetPdf));
+		    PdfWriter writer = createWriter(document, targetPdf, target);
 		    document.open();
 
 		    createFont();
-		    addPage(writer, document, page, imageFile, false);
+		    addPage(new OutputDocument(document, writer, false), page, image, false);
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		} finally {
@@ -137,22 +372,144 @@ public class PageToPdfConverter {
 	}
 	
 	/**
-	 * Creates the font that is to be used for the hidden text layer in the PDF.
+	 * Appends pages to an existing PDF as an incremental update: the new objects are added to the end of the file,
+	 * the existing objects are neither parsed (except for the page tree) nor rewritten. The original file is read
+	 * once sequentially (iText copies it to the output, the copy is discarded). If the PDF does not exist, it is created.
+	 * @param inputs Page inputs (PAGE XML and image)
+	 * @param targetPdf PDF file to append to
+	 * @return Number of pages appended
 	 */
-	private void createFont() throws DocumentException, IOException  {
-		
-		//TODO Even with the 'NOT_EMBEDDED' settings it seems to embed the font!
-		
-		if (ttfFontFilePath == null)
-			font = BaseFont.createFont(BaseFont.HELVETICA,
-					BaseFont.CP1252, BaseFont.NOT_EMBEDDED);
-		else {
-			font = FontFactory.getFont(ttfFontFilePath, BaseFont.IDENTITY_H, BaseFont.NOT_EMBEDDED).getBaseFont();
-				//PDTrueTypeFont.loadTTF(document, ttfFontFilePath);
-			//Encoding enc = font.getFontEncoding();
-			//Map<Integer, String> map = enc.getCodeToNameMap();
-			//System.out.println("Font encoding map size: " + map.size());
+	public int append(Iterator<PageInput> inputs, String targetPdf) {
+		if (!new File(targetPdf).exists())
+			return convert(inputs, targetPdf);
+		PreparationPipeline pipeline = new PreparationPipeline(this, inputs, workerThreads);
+		try {
+			return appendPages(pipeline, targetPdf);
+		} finally {
+			pipeline.close();
+		}
+	}
+
+	/**
+	 * Appends pages to an existing PDF as an incremental update (see <code>append(Iterator, String)</code>)
+	 * @param pages Pages to append
+	 * @param imageFiles Document images of the pages
+	 * @param targetPdf PDF file to append to
+	 */
+	public void append(final List<Page> pages, final List<String> imageFiles, String targetPdf) {
+		if (!new File(targetPdf).exists()) {
+			convert(pages, imageFiles, targetPdf);
+			return;
+		}
+		appendPages(new Iterator<PreparedPage>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < pages.size();
+			}
+
+			@Override
+			public PreparedPage next() {
+				int i = index++;
+				try {
+					return preparePage(pages.get(i), imageFiles.get(i));
+				} catch (Exception exc) {
+					exc.printStackTrace();
+					if (listener != null)
+						listener.pageFailed(null, exc);
+					return null;
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		}, targetPdf);
+	}
+
+	/**
+	 * Writes the given pages to the end of the given PDF (incremental update).
+	 * The file is restored to its previous state if the update fails.
+	 * @return Number of pages appended
+	 */
+	private int appendPages(Iterator<PreparedPage> pages, String targetPdf) {
+		int pageCount = 0;
+		PdfReader reader = null;
+		AppendingOutputStream out = null;
+		PdfStamper stamper = null;
+		try {
+			createFont();
+			
+			//Partial reading (objects are only loaded when needed), no memory mapping (the file is extended)
+			reader = new PdfReader(new RandomAccessFileOrArray(new RandomAccessSourceFactory().setUsePlainRandomAccess(true).createBestSource(targetPdf)), null);
+			//The stamper copies the original file to the output stream, where it is skipped
+			out = new AppendingOutputStream(new File(targetPdf));
+			stamper = new PdfStamper(reader, out, '\0', true);
+			stamper.getWriter().setCloseStream(false); //Closed after commit
+			stamper.getWriter().setCompressionLevel(compressionLevel);
+			OutputDocument output = new OutputDocument(stamper, imageDeduplication, getImageCacheSize());
+			while (pages.hasNext()) {
+				PreparedPage prepared = pages.next();
+				if (prepared == null)
+					continue;
+				writePage(output, prepared, true);
+				pageCount++;
+			}
+			stamper.close();
+			stamper = null;
+			out.commit();
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			pageCount = 0;
+		} finally {
+			try {
+				if (stamper != null)
+					stamper.close();
+			} catch (Exception exc) {
+				//Update is discarded
+			}
+			if (reader != null)
+				reader.close();
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException exc) {
+				exc.printStackTrace();
+			}
+		}
+		return pageCount;
+	}
+
+	/**
+	 * Creates the PDF writer for the given document with the compression settings (before the document is opened)
+	 * @param targetPdf Output file (if no stream is given)
+	 * @param target Output stream of the caller (not closed with the document) or <code>null</code>
+	 */
+	private PdfWriter createWriter(Document document, String targetPdf, OutputStream target) throws FileNotFoundException, DocumentException {
+		PdfWriter writer;
+		if (target != null) {
+			writer = PdfWriter.getInstance(document, target);
+			writer.setCloseStream(false);
 		}
+		else
+			writer = PdfWriter.getInstance(document, new FileOutputStream(targetPdf));
+		writer.setCompressionLevel(compressionLevel);
+		if (fullCompression)
+			writer.setFullCompression(); //PDF 1.5
+		return writer;
+	}
+	
+	/**
+	 * Gets the font that is to be used for the hidden text layer in the PDF from the font registry
+	 * (the font file is only loaded once per process).
+	 */
+	synchronized void createFont() throws IOException  {
+		
+		FontRegistry.RegisteredFont registered = FontRegistry.getInstance().getRegisteredFont(ttfFontFilePath, fontEmbedding);
+		metrics = registered.metrics;
+		font = registered.font;
 	}
 	
 	//public void setDebug(boolean debug) {
@@ -167,66 +524,437 @@ public class PageToPdfConverter {
 		this.ttfFontFilePath = ttfFontFilePath;
 	}
 
+	/**
+	 * Embedding of the TTF font (see <code>setFontFilePath</code>)
+	 * @param fontEmbedding Embedding policy (default: subset of the glyphs used in the document)
+	 */
+	public void setFontEmbedding(FontEmbedding fontEmbedding) {
+		this.fontEmbedding = fontEmbedding;
+	}
+
+	/**
+	 * Method for fitting the hidden text into the bounding boxes
+	 * @param textFitting Fitting method (default: <code>TextFitting.FONT_SIZE</code>)
+	 */
+	public void setTextFitting(TextFitting textFitting) {
+		this.textFitting = textFitting;
+	}
+
+	/**
+	 * Returns the size of the font programs embedded in the given PDF file.
+	 * (uncompressed size, comparable to the size of a TTF file)
+	 * @param pdfFile PDF file
+	 * @return Size in bytes
+	 */
+	public static long getEmbeddedFontSize(String pdfFile) throws IOException {
+		PdfReader reader = new PdfReader(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createBestSource(pdfFile)), null);
+		try {
+			long size = 0;
+			for (int i=1; i<reader.getXrefSize(); i++) {
+				PdfObject obj = reader.getPdfObjectRelease(i);
+				if (obj == null || !obj.isDictionary())
+					continue;
+				PdfDictionary dict = (PdfDictionary)obj;
+				if (!PdfName.FONTDESCRIPTOR.equals(dict.getAsName(PdfName.TYPE)))
+					continue;
+				for (PdfName key : new PdfName[] { PdfName.FONTFILE, PdfName.FONTFILE2, PdfName.FONTFILE3 }) {
+					PdfObject fontFile = PdfReader.getPdfObjectRelease(dict.get(key));
+					if (fontFile instanceof PRStream) {
+						PdfNumber length1 = ((PRStream)fontFile).getAsNumber(PdfName.LENGTH1);
+						size += length1 != null ? length1.longValue() : ((PRStream)fontFile).getLength();
+					}
+				}
+			}
+			return size;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Number of threads preparing pages concurrently in <code>convert(Iterator, String)</code>.<br>
+	 * Parsing, image decoding, font fitting and outline geometry run on the worker threads,
+	 * while the pages are written to the PDF in order by the calling thread. 
+	 * @param threads Number of worker threads (default 1: everything is done on the calling thread)
+	 */
+	public void setWorkerThreads(int threads) {
+		this.workerThreads = threads;
+	}
+
+	/**
+	 * Copy JPEG, JPEG 2000 and CCITT G4 TIFF images to the PDF without decoding them.
+	 * The compressed data is streamed from the image file when the page is written.
+	 * @param imagePassthrough Enable passthrough (default: true; other image formats are always decoded)
+	 */
+	public void setImagePassthrough(boolean imagePassthrough) {
+		this.imagePassthrough = imagePassthrough;
+	}
+
+	/**
+	 * Resolution and compression of the page images
+	 * @param imageProfile Profile (default: <code>ImageProfile.ORIGINAL</code>, images are embedded as they are)
+	 */
+	public void setImageProfile(ImageProfile imageProfile) {
+		this.imageProfile = imageProfile != null ? imageProfile : ImageProfile.ORIGINAL;
+	}
+
+	/**
+	 * Share one image XObject between all pages of a document with identical images (e.g. blank pages).
+	 * Images are compared by size and file first; the image data is only hashed if a different image of the same
+	 * size has already been written, so pages with unique images are not slowed down.
+	 * @param imageDeduplication Enable deduplication (default: true)
+	 */
+	public void setImageDeduplication(boolean imageDeduplication) {
+		this.imageDeduplication = imageDeduplication;
+	}
+
+	/**
+	 * Write the cross-reference table and the objects other than streams (page dictionaries, fonts, annotations etc.)
+	 * into compressed object streams (requires PDF 1.5).
+	 * @param fullCompression Enable full compression (default: false)
+	 */
+	public void setFullCompression(boolean fullCompression) {
+		this.fullCompression = fullCompression;
+	}
+
+	/**
+	 * Flate compression level of the content streams (text and outlines) and of images that are not
+	 * compressed already.
+	 * @param compressionLevel 0 (no compression) to 9 (best compression),
+	 *   default: <code>PdfStream.DEFAULT_COMPRESSION</code> (6)
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Read PAGE XML files with a streaming parser that passes the text and outlines directly to the converter,
+	 * instead of loading the page object model. Only the content that is needed for the PDF is read,
+	 * which reduces parsing time and memory for large pages (e.g. with glyphs). Pages that are passed to the
+	 * converter as objects are not affected.
+	 * @param streamingXmlReader Enable the streaming reader (default: false)
+	 */
+	public void setStreamingXmlReader(boolean streamingXmlReader) {
+		this.streamingXmlReader = streamingXmlReader;
+	}
+
+	/**
+	 * Large-document mode for documents with many thousand pages: the memory per document does not grow
+	 * with the number of pages, apart from the page references and cross-reference entries that are needed
+	 * at the end of the PDF (well below 1 KB per page).<br>
+	 * Each page is written to the output (content, resources and page dictionary) when the next page is started.
+	 * In this mode, image deduplication only remembers the most recently written images, so that identical images
+	 * (e.g. blank pages) still share one XObject if they are not too far apart. Images that have been dropped
+	 * are written again, so the output can be larger than without this mode.
+	 * @param largeDocumentMode Enable large-document mode (default: false)
+	 */
+	public void setLargeDocumentMode(boolean largeDocumentMode) {
+		this.largeDocumentMode = largeDocumentMode;
+	}
+
+	/**
+	 * Split the output of <code>convert(List, List, String)</code> and <code>convert(Iterator, String)</code> into
+	 * several PDF files (parts) with at most the given number of pages. The parts are named after the target file
+	 * (<code>book_001.pdf</code>, <code>book_002.pdf</code>, ... for <code>book.pdf</code>, see <code>getPartFilename</code>)
+	 * and are written concurrently by the worker threads (one thread per part).
+	 * Can be combined with <code>setMaxPartSize</code>.
+	 * @param maxPagesPerPart Maximum number of pages per part (default: 0, no splitting)
+	 */
+	public void setMaxPagesPerPart(int maxPagesPerPart) {
+		this.maxPagesPerPart = maxPagesPerPart;
+	}
+
+	/**
+	 * Split the output into several PDF files (parts, see <code>setMaxPagesPerPart</code>) with an estimated size
+	 * below the given size. The size of each page is estimated before it is converted, mainly from the size of the
+	 * image file, so that the parts can be written concurrently. The limit applies to the estimate: images that
+	 * are decoded and compressed again (e.g. PNG, LZW TIFF, some image profiles) can make a part larger.
+	 * @param maxPartSize Maximum size of a part in bytes (default: 0, no splitting)
+	 */
+	public void setMaxPartSize(long maxPartSize) {
+		this.maxPartSize = maxPartSize;
+	}
+
+	/**
+	 * Returns <code>true</code> if the output is split into parts
+	 */
+	private boolean isSplitting() {
+		return maxPagesPerPart > 0 || maxPartSize > 0;
+	}
+
+	/**
+	 * Filename of a part of a split output, e.g. <code>book_001.pdf</code> for part 1 of <code>book.pdf</code>
+	 * @param targetPdf Output PDF file
+	 * @param part Number of the part (starting with 1)
+	 */
+	public static String getPartFilename(String targetPdf, int part) {
+		return OutputSplitter.getPartFilename(targetPdf, part);
+	}
+
+	/**
+	 * Maximum number of images remembered for deduplication (0 for no limit)
+	 */
+	int getImageCacheSize() {
+		return largeDocumentMode ? LARGE_DOCUMENT_IMAGE_CACHE : 0;
+	}
+
+	/**
+	 * Listener for page statistics (timings per stage and content counts) and errors
+	 * @param listener Listener or <code>null</code>
+	 */
+	public void setConversionListener(ConversionListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns the listener for page statistics and errors (or <code>null</code>)
+	 */
+	ConversionListener getConversionListener() {
+		return listener;
+	}
+
+	/**
+	 * Returns a description of all settings that affect the PDF output
+	 * (used to detect outputs that have to be converted again)
+	 */
+	String getSettingsDescription() {
+		String level = "-";
+		if (textLevel == RegionType.TextRegion)
+			level = "R";
+		else if (textLevel == LowLevelTextType.TextLine)
+			level = "L";
+		else if (textLevel == LowLevelTextType.Word)
+			level = "W";
+		else if (textLevel == LowLevelTextType.Glyph)
+			level = "G";
+		return "text=" + level + " outlines=" + (addRegionOutlines ? "R" : "") + (addTextLineOutlines ? "L" : "")
+				+ (addWordOutlines ? "W" : "") + (addGlyphOutlines ? "G" : "")
+				+ " font=" + ttfFontFilePath + " embedding=" + fontEmbedding + " fitting=" + textFitting
+				+ " passthrough=" + imagePassthrough + " deduplication=" + imageDeduplication + " profile=" + imageProfile
+				+ " fullCompression=" + fullCompression + " compressionLevel=" + compressionLevel
+				+ " largeDocument=" + largeDocumentMode;
+	}
+
 	/**
 	 * Adds a page to the PDF
-	 * @param writer
-	 * @param doc
+	 * @param output
 	 * @param page
-	 * @param imageFile
+	 * @param image
 	 * @param addPageBreak
 	 */
-	private void addPage(PdfWriter writer, Document doc, Page page, String imageFile, boolean addPageBreak) {
+	private void addPage(OutputDocument output, Page page, ImageSource image, boolean addPageBreak) {
 		try {
-
-			if (addPageBreak) {
-				doc.setPageSize(new Rectangle(page.getLayout().getWidth(), page.getLayout().getHeight()));
-				doc.newPage();
-			}
-			
-			//TODO Use image DPI and size
-			//The measurement unit of the PDF is point (1 Point = 0.0352777778 cm)
-			//For now: Set the PDF size to the PAGE size (1px = 1pt)
-			//PDPage pdfPage = new PDPage(PDPage.PAGE_SIZE_A4); 
-			/*PDPage pdfPage = new PDPage(new PDRectangle(page.getLayout().getWidth(), page.getLayout().getHeight()));
-			doc.addPage( pdfPage );
-			
-			if (DEBUG) {
-				System.out.println("Mediabox width: "+pdfPage.getMediaBox().getWidth());
-				System.out.println("Mediabox height: "+pdfPage.getMediaBox().getHeight());
-			}
-			
-	
-			// Start a new content stream which will "hold" the to be created content
-			PDPageContentStream contentStream = new PDPageContentStream(doc, pdfPage);
-			*/
-			try{
-				addText(writer, page);
-				addImage(imageFile, writer, doc, page); //The images hides the text
-				if (addRegionOutlines)
-					addOutlines(writer, page, null);
-				if (addTextLineOutlines)
-					addOutlines(writer, page, LowLevelTextType.TextLine);
-				if (addWordOutlines)
-					addOutlines(writer, page, LowLevelTextType.Word);
-				if (addGlyphOutlines)
-					addOutlines(writer, page, LowLevelTextType.Glyph);
-			}
-			finally {
-				// Make sure that the content stream is closed:
-				//contentStream.close();
-			}
+			writePage(output, preparePage(page, image, 0), addPageBreak);
 		} catch (Exception exc) {
 			exc.printStackTrace();
+			if (listener != null)
+				listener.pageFailed(null, exc);
 		}
+	}
+
+	/**
+	 * Loads the given input and prepares the page content for writing.
+	 * Can be called concurrently.
+	 * @param input PAGE XML and image
+	 * @return Prepared page
+	 * @throws IOException The page could not be loaded
+	 */
+	PreparedPage preparePage(PageInput input) throws Exception {
+		if (streamingXmlReader && input.getXmlFile() != null)
+			return preparePageStreaming(input);
+		long time = System.nanoTime();
+		Page page = input.loadPage();
+		if (page == null)
+			throw new IOException("Could not load page: " + input.getXmlFile());
+		long xmlLoadTime = System.nanoTime() - time;
+		PreparedPage prepared = preparePage(page, input.getImageSource(), input.getImageFrame());
+		prepared.statistics.xmlFile = input.getXmlFile();
+		prepared.statistics.xmlLoadTime = xmlLoadTime;
+		return prepared;
+	}
+
+	/**
+	 * Reads the given input with the streaming PAGE XML reader and prepares the page content for writing.
+	 * Can be called concurrently.
+	 * @param input PAGE XML file and image
+	 * @return Prepared page
+	 * @throws IOException The page could not be loaded
+	 */
+	private PreparedPage preparePageStreaming(PageInput input) throws Exception {
+		PreparedPage prepared = readPageStreaming(input.getXmlFile());
+		if (prepared == null)
+			throw new IOException("Could not load page: " + input.getXmlFile());
+		ImageSource image = input.getImageSource();
+		prepared.statistics.xmlFile = input.getXmlFile();
+		prepared.statistics.imageFile = image.getFile();
+		prepareImage(prepared, image, input.getImageFrame());
+		return prepared;
+	}
+
+	/**
+	 * Reads text and outlines from the given PAGE XML file with the streaming reader
+	 * (without the page object model). The image is not added.
+	 * @param xmlFile PAGE XML file
+	 * @return Prepared page or <code>null</code> if the file does not contain a page
+	 */
+	PreparedPage readPageStreaming(String xmlFile) throws Exception {
+		long time = System.nanoTime();
+		boolean[] levels = new boolean[] {
+				addRegionOutlines || textLevel == RegionType.TextRegion,
+				addTextLineOutlines || textLevel == LowLevelTextType.TextLine,
+				addWordOutlines || textLevel == LowLevelTextType.Word,
+				addGlyphOutlines || textLevel == LowLevelTextType.Glyph };
+		StreamingPageHandler handler = new StreamingPageHandler();
+		if (!new PageXmlStreamReader(levels).read(xmlFile, handler))
+			return null;
+		
+		PreparedPage prepared = handler.prepared;
+		PageStatistics statistics = prepared.statistics;
+		for (Map<BaseColor, PreparedPage.OutlineGroup> groups : handler.outlines)
+			prepared.outlines.addAll(groups.values());
+		for (PreparedPage.TextItem item : prepared.textItems)
+			statistics.glyphs += item.text.codePointCount(0, item.text.length());
 		
+		//Parsing only (text and outlines are prepared while reading)
+		statistics.xmlLoadTime = System.nanoTime() - time - statistics.textTime;
+		for (long outlineTime : statistics.outlineTimes)
+			statistics.xmlLoadTime -= outlineTime;
+		return prepared;
+	}
+
+	/**
+	 * Prepares text, image and outlines of the given page for writing (does not require the PDF writer).
+	 * Can be called concurrently.
+	 * @param page
+	 * @param imageFile
+	 * @return Prepared page
+	 */
+	PreparedPage preparePage(Page page, String imageFile) throws MalformedURLException, IOException, DocumentException {
+		return preparePage(page, new ImageSource(imageFile), 0);
+	}
+
+	/**
+	 * Prepares text, image and outlines of the given page for writing (does not require the PDF writer).
+	 * Can be called concurrently.
+	 * @param page
+	 * @param image Image file or data
+	 * @param imageFrame Frame of a multi-page TIFF (0 for single images)
+	 * @return Prepared page
+	 */
+	PreparedPage preparePage(Page page, ImageSource image, int imageFrame) throws MalformedURLException, IOException, DocumentException {
+		PreparedPage prepared = new PreparedPage(page.getLayout().getWidth(), page.getLayout().getHeight());
+		PageStatistics statistics = prepared.statistics;
+		statistics.imageFile = image.getFile();
+
+		//TODO Use image DPI and size
+		//The measurement unit of the PDF is point (1 Point = 0.0352777778 cm)
+		//For now: Set the PDF size to the PAGE size (1px = 1pt)
+		long time = System.nanoTime();
+		addText(prepared, page);
+		statistics.textTime = System.nanoTime() - time;
+		
+		prepareImage(prepared, image, imageFrame);
+		
+		if (addRegionOutlines)
+			addOutlines(prepared, page, null, OutputDocument.REGION_OUTLINES);
+		if (addTextLineOutlines)
+			addOutlines(prepared, page, LowLevelTextType.TextLine, OutputDocument.TEXT_LINE_OUTLINES);
+		if (addWordOutlines)
+			addOutlines(prepared, page, LowLevelTextType.Word, OutputDocument.WORD_OUTLINES);
+		if (addGlyphOutlines)
+			addOutlines(prepared, page, LowLevelTextType.Glyph, OutputDocument.GLYPH_OUTLINES);
+		return prepared;
+	}
+
+	/**
+	 * Adds the image to the prepared page (including the digest for deduplication, which does not read the image)
+	 * @param prepared
+	 * @param image Image file or data
+	 * @param imageFrame Frame of a multi-page TIFF (0 for single images)
+	 */
+	private void prepareImage(PreparedPage prepared, ImageSource image, int imageFrame) throws MalformedURLException, IOException, DocumentException {
+		long time = System.nanoTime();
+		addImage(image, imageFrame, prepared);
+		if (imageDeduplication) {
+			if (prepared.passthroughImage != null)
+				prepared.imageDigest = prepared.passthroughImage.getDigest();
+			else if (prepared.image != null && prepared.image.getRawData() != null && prepared.image.getImageMask() == null
+					&& prepared.image.getTransparency() == null && !prepared.image.isImgTemplate())
+				prepared.imageDigest = ImageDigest.of(image, imageFrame);
+		}
+		prepared.statistics.imageTime = System.nanoTime() - time;
+	}
+
+	/**
+	 * Writes a prepared page to the PDF (must be called from one thread only, in page order)
+	 * @param output
+	 * @param prepared
+	 * @param addPageBreak
+	 */
+	private void writePage(OutputDocument output, PreparedPage prepared, boolean addPageBreak) throws DocumentException, IOException {
+		long time = System.nanoTime();
+		output.newPage(prepared.width, prepared.height, addPageBreak);
+		PdfWriter writer = output.writer;
+
+		//Text
+		PdfContentByte cb = output.getUnderContent();
+		cb.saveState();
+		float horizontalScaling = 100f;
+		for (PreparedPage.TextItem item : prepared.textItems) {
+			cb.beginText();
+			cb.setTextMatrix(item.x, item.y);
+			cb.setFontAndSize(font, item.fontSize);
+			if (item.horizontalScaling != horizontalScaling) {
+				horizontalScaling = item.horizontalScaling;
+				cb.setHorizontalScaling(horizontalScaling);
+			}
+			cb.showText(item.text);
+			cb.endText();
+		}
+		cb.restoreState();
+
+		//Image (hides the text)
+		Image img = writeImage(output, prepared);
+		if (img != null) {
+			cb.saveState();
+			cb.addImage(img);
+			cb.restoreState();
+		}
+
+		//Outlines (one layer per level, one path per colour)
+		if (!prepared.outlines.isEmpty()) {
+			cb = output.getOverContent();
+			cb.saveState();
+			int level = -1;
+			for (PreparedPage.OutlineGroup group : prepared.outlines) {
+				if (group.level != level) {
+					if (level >= 0)
+						cb.endLayer();
+					level = group.level;
+					cb.beginLayer(output.getOutlineLayer(level));
+					cb.setLineWidth(1.0f);
+				}
+				drawOutlines(group, cb);
+			}
+			cb.endLayer();
+			cb.restoreState();
+		}
+
+		//Statistics
+		output.pageCount++;
+		if (listener != null) {
+			prepared.statistics.pageNumber = output.pageCount;
+			prepared.statistics.writeTime = System.nanoTime() - time;
+			listener.pageConverted(prepared.statistics);
+		}
 	}
 	
 	/**
-	 * Adds the text of the given page to the current PDF page
-	 * @param writer
+	 * Adds the text of the given page to the prepared page
+	 * @param prepared
 	 * @param page
 	 */
-	private void addText(PdfWriter writer, Page page) {
+	void addText(PreparedPage prepared, Page page) {
 		
 		if (textLevel == null)
 			return;
@@ -234,65 +962,79 @@ public class PageToPdfConverter {
 		int pageHeight = page.getLayout().getHeight();
 		
 		try {
-			PdfContentByte cb = writer.getDirectContentUnder();
-			cb.saveState();
 			for (ContentIterator it = page.getLayout().iterator(textLevel); it.hasNext(); ) {
 				ContentObject obj = it.next();
 				if (obj == null || !(obj instanceof TextObject))
 					continue;
-				TextObject textObj = (TextObject)obj;
-
-				if (textObj.getText() != null && !textObj.getText().isEmpty()) {
-					
-					List<String> strings = new ArrayList<String>();
-					List<Rect> boxes = new ArrayList<Rect>();
-					
-					float fontSize = 1.0f;
-					
-					//Collect
-					if (textObj instanceof LowLevelTextObject) {
-						strings.add(textObj.getText());
-						Rect boundingBox = obj.getCoords().getBoundingBox();
-						boxes.add(boundingBox);
-						fontSize = calculateFontSize(textObj.getText(), boundingBox.getWidth(), boundingBox.getHeight());
-					} else {
-						fontSize = splitTextRegion((TextRegion)obj, strings, boxes);
-					}
-					
-					//Render
-					for (int i=0; i<strings.size(); i++) {
-						String text = strings.get(i);
-						Rect boundingBox = boxes.get(i);
-
-						//Calculate vertical transition (text is rendered at baseline -> descending bits are below the chosen position)
-						int descent = (int)font.getDescentPoint(text, fontSize);
-						int ascent = (int)font.getAscentPoint(text, fontSize);
-						int textHeight = Math.abs(descent) + ascent;
-						int transY = descent;
-						
-						if (textHeight < boundingBox.getHeight()) {
-							transY = descent - (boundingBox.getHeight() - textHeight) / 2; 
-						}
-						
-						cb.beginText();
-						//cb.moveText(boundingBox.left, pageHeight - boundingBox.bottom);
-						cb.setTextMatrix(boundingBox.left, pageHeight - boundingBox.bottom - transY);
-						cb.setFontAndSize(font, fontSize);
-						cb.showText(text);
-						cb.endText();
-						
-						//Debug
-						//cb.moveTo(boundingBox.left, pageHeight - boundingBox.bottom - transY);
-						//cb.lineTo(boundingBox.right, pageHeight - boundingBox.bottom - transY);
-						//cb.moveTo(boundingBox.left, pageHeight - boundingBox.bottom);
-						//cb.lineTo(boundingBox.right, pageHeight - boundingBox.bottom);
-					}
-				}
+				addText(prepared, ((TextObject)obj).getText(), obj.getCoords(), !(obj instanceof LowLevelTextObject), pageHeight);
 			}
-			cb.restoreState();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		for (PreparedPage.TextItem item : prepared.textItems)
+			prepared.statistics.glyphs += item.text.codePointCount(0, item.text.length());
+	}
+
+	/**
+	 * Adds the text of one layout object to the prepared page
+	 * @param prepared
+	 * @param text Text content (nothing is added if empty)
+	 * @param coords Outline of the object
+	 * @param region Text region (split into lines) or low-level text object (text line, word or glyph)
+	 * @param pageHeight
+	 */
+	void addText(PreparedPage prepared, String text, Polygon coords, boolean region, int pageHeight) throws IOException {
+		if (text == null || text.isEmpty())
+			return;
+		prepared.statistics.textObjects++;
+		
+		List<String> strings = new ArrayList<String>();
+		List<Rect> boxes = new ArrayList<Rect>();
+		
+		//Font size and scaling per string (no search)
+		if (textFitting == TextFitting.HORIZONTAL_SCALING) {
+			if (!region) {
+				strings.add(text);
+				boxes.add(coords.getBoundingBox());
+			} else
+				splitTextRegion(text, coords.getBoundingBox(), strings, boxes, false);
+			for (int i=0; i<strings.size(); i++) {
+				Rect box = boxes.get(i);
+				prepared.textItems.add(fitTextToBox(metrics, strings.get(i), box.left, pageHeight - box.bottom,
+													box.getWidth(), box.getHeight()));
+			}
+			return;
+		}
+		
+		float fontSize = 1.0f;
+		
+		//Collect
+		if (!region) {
+			strings.add(text);
+			Rect boundingBox = coords.getBoundingBox();
+			boxes.add(boundingBox);
+			fontSize = calculateFontSize(text, boundingBox.getWidth(), boundingBox.getHeight());
+		} else {
+			fontSize = splitTextRegion(text, coords.getBoundingBox(), strings, boxes, true);
+		}
+		
+		//Layout
+		for (int i=0; i<strings.size(); i++) {
+			String str = strings.get(i);
+			Rect boundingBox = boxes.get(i);
+
+			//Calculate vertical transition (text is rendered at baseline -> descending bits are below the chosen position)
+			int descent = (int)metrics.getDescentPoint(str, fontSize);
+			int ascent = (int)metrics.getAscentPoint(str, fontSize);
+			int textHeight = Math.abs(descent) + ascent;
+			int transY = descent;
+			
+			if (textHeight < boundingBox.getHeight()) {
+				transY = descent - (boundingBox.getHeight() - textHeight) / 2; 
+			}
+			
+			prepared.textItems.add(new PreparedPage.TextItem(str, boundingBox.left, pageHeight - boundingBox.bottom - transY, fontSize));
+		}
 	}
 	
 	/*private int calculateDescent(String text, float fontSize) {
@@ -317,21 +1059,32 @@ public class PageToPdfConverter {
 	 * @param reg region to be split
 	 * @param strings (out) Target list for text line strings 
 	 * @param boxes (out) Target list for text line bounding boxes
+	 * @param calculateFontSize Calculate the font size (otherwise 1.0 is returned)
 	 * @return The font size to be used for the whole region
 	 * @throws IOException 
 	 */
-	private float splitTextRegion(TextRegion reg, List<String> strings, List<Rect> boxes) throws IOException {
-		
-		Rect regionBoundingBox = reg.getCoords().getBoundingBox();
+	float splitTextRegion(TextRegion reg, List<String> strings, List<Rect> boxes, boolean calculateFontSize) throws IOException {
+		return splitTextRegion(reg.getText(), reg.getCoords().getBoundingBox(), strings, boxes, calculateFontSize);
+	}
+
+	/**
+	 * Splits the given text region into lines
+	 * @param text Text of the region
+	 * @param regionBoundingBox Bounding box of the region
+	 * @see #splitTextRegion(TextRegion, List, List, boolean)
+	 */
+	float splitTextRegion(String text, Rect regionBoundingBox, List<String> strings, List<Rect> boxes, boolean calculateFontSize) throws IOException {
 		
 		//Split text content into lines
-		String regionText = reg.getText().replace("\r", "");
+		String regionText = text.replace("\r", "");
 		String[] splitText = regionText.split("\n");
 		
 		int lineCount = splitText.length;
 		if (lineCount == 1) {
 			strings.add(regionText);
 			boxes.add(regionBoundingBox);
+			if (!calculateFontSize)
+				return 1.0f;
 			return calculateFontSize(regionText, regionBoundingBox.getWidth(), regionBoundingBox.getHeight());
 		} 
 		
@@ -346,12 +1099,14 @@ public class PageToPdfConverter {
 									regionBoundingBox.right,
 									regionBoundingBox.top + (int)((double)(i+1) * lineHeight));
 				
+				boxes.add(bb);
+				if (!calculateFontSize)
+					continue;
+				
 				float fontSize = calculateFontSize(splitText[i], bb.getWidth(), bb.getHeight());
 				
 				if (fontSize < minFontSize)
 					minFontSize = fontSize;
-				
-				boxes.add(bb);
 			}
 			return minFontSize;
 		}
@@ -360,52 +1115,76 @@ public class PageToPdfConverter {
 	}
 	
 	/**
-	 * Adds the specified outlines of the given page to the current PDF page. 
-	 * @param writer
+	 * Adds the specified outlines of the given page to the prepared page, grouped by colour. 
+	 * @param prepared
 	 * @param page
 	 * @param type
+	 * @param level Outline level (layer)
 	 */
-	private void addOutlines(PdfWriter writer, Page page, ContentType type) {
+	void addOutlines(PreparedPage prepared, Page page, ContentType type, int level) {
+		long time = System.nanoTime();
 		int pageHeight = page.getLayout().getHeight();
+		Map<BaseColor, PreparedPage.OutlineGroup> groups = new LinkedHashMap<BaseColor, PreparedPage.OutlineGroup>();
 		
 		try {
-			PdfContentByte cb = writer.getDirectContent();
-			cb.saveState();
 			for (ContentIterator it = page.getLayout().iterator(type); it.hasNext(); ) {
 				ContentObject contentObj = it.next();
-				drawLayoutObject(contentObj, cb, pageHeight);
+				if (contentObj == null)
+					continue;
+				addOutline(prepared, groups, contentObj.getCoords(), contentObj.getType(), level, pageHeight);
 			}
-			cb.restoreState();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		prepared.outlines.addAll(groups.values());
+		prepared.statistics.outlineTimes[level] = System.nanoTime() - time;
 	}
 	
 	/**
-	 * Draws the outline of the given layout object on the current PDF page. 
-	 * @param obj
-	 * @param canvas
+	 * Adds the outline of one layout object to the group of its colour
+	 * @param prepared
+	 * @param groups Outline groups of the level by colour (group is added if necessary)
+	 * @param polygon Outline (ignored if it has less than three points)
+	 * @param type Type of the layout object (for the colour)
+	 * @param level Outline level (layer)
 	 * @param pageHeight
 	 */
-	private void drawLayoutObject(ContentObject obj, PdfContentByte canvas, int pageHeight) {
-		if (obj == null)
-			return;
-		
-		Polygon polygon = obj.getCoords();
-		
+	void addOutline(PreparedPage prepared, Map<BaseColor, PreparedPage.OutlineGroup> groups, Polygon polygon,
+					ContentType type, int level, int pageHeight) {
 		if (polygon == null || polygon.getSize() < 3)
 			return;
 		
-		canvas.setColorStroke(getOutlineColor(obj.getType()));
-		canvas.setLineWidth(1.0f);
-		
-		//Move to last point
-		Point p = polygon.getPoint(polygon.getSize()-1);
-		canvas.moveTo(p.x, pageHeight-p.y);
-		//Now draw all line segments
+		float[] points = new float[polygon.getSize() * 2];
 		for (int i=0; i<polygon.getSize(); i++) {
-			p = polygon.getPoint(i);
-			canvas.lineTo(p.x, pageHeight-p.y);
+			Point p = polygon.getPoint(i);
+			points[2*i] = p.x;
+			points[2*i+1] = pageHeight-p.y;
+		}
+		BaseColor color = getOutlineColor(type);
+		PreparedPage.OutlineGroup group = groups.get(color);
+		if (group == null) {
+			group = new PreparedPage.OutlineGroup(level, color);
+			groups.put(color, group);
+		}
+		group.polygons.add(points);
+		prepared.statistics.polygons++;
+		prepared.statistics.polygonVertices += polygon.getSize();
+	}
+	
+	/**
+	 * Draws the given outlines on the current PDF page (one stroked path). 
+	 * @param group
+	 * @param canvas
+	 */
+	void drawOutlines(PreparedPage.OutlineGroup group, PdfContentByte canvas) {
+		canvas.setColorStroke(group.color);
+		
+		for (float[] points : group.polygons) {
+			//Move to last point
+			canvas.moveTo(points[points.length-2], points[points.length-1]);
+			//Now draw all line segments
+			for (int i=0; i<points.length; i+=2)
+				canvas.lineTo(points[i], points[i+1]);
 		}
 		canvas.stroke();
 	}
@@ -415,57 +1194,141 @@ public class PageToPdfConverter {
 	 */
 	private BaseColor getOutlineColor(ContentType type) {
 		if (type == LowLevelTextType.TextLine)
-			return new BaseColor(50, 205, 50);
+			return COLOR_TEXT_LINE;
 		else if (type == LowLevelTextType.Word)
-			return new BaseColor(178, 34, 34);
+			return COLOR_WORD;
 		else if (type == LowLevelTextType.Glyph)
-			return new BaseColor(46, 139, 8);
+			return COLOR_GLYPH;
 		else if (type == RegionType.TextRegion)
-			return new BaseColor(0, 0, 255);
+			return COLOR_TEXT_REGION;
 		else if (type == RegionType.ChartRegion)
-			return new BaseColor(128, 0, 128);
+			return COLOR_CHART;
 		else if (type == RegionType.GraphicRegion)
-			return new BaseColor(0,128,0);
+			return COLOR_GRAPHIC;
 		else if (type == RegionType.ImageRegion)
-			return new BaseColor(0,206,209);
+			return COLOR_IMAGE;
 		else if (type == RegionType.LineDrawingRegion)
-			return new BaseColor(184, 134, 11);
+			return COLOR_LINE_DRAWING;
 		else if (type == RegionType.MathsRegion)
-			return new BaseColor(0, 191, 255);
+			return COLOR_MATHS;
 		else if (type == RegionType.NoiseRegion)
-			return new BaseColor(255, 0, 0);
+			return COLOR_NOISE;
 		else if (type == RegionType.SeparatorRegion)
-			return new BaseColor(255, 0, 255);
+			return COLOR_SEPARATOR;
 		else if (type == RegionType.TableRegion)
-			return new BaseColor(139, 69, 19);
+			return COLOR_TABLE;
 		else if (type == RegionType.AdvertRegion)
-			return new BaseColor(70, 130, 180);
+			return COLOR_ADVERT;
 		else if (type == RegionType.ChemRegion)
-			return new BaseColor(255, 140,   0);
+			return COLOR_CHEM;
 		else if (type == RegionType.MusicRegion)
-			return new BaseColor(148,   0, 211);
+			return COLOR_MUSIC;
 		return BaseColor.BLUE;
 	}
 
 	/**
-	 * Adds the document page image to the current PDF page (spanning the whole page). 
+	 * Writes the image XObject of the prepared page or, if an identical image has already been written,
+	 * references the existing XObject.
+	 * @return Image to be added to the page
 	 */
-	private void addImage(String filepath, PdfWriter writer, Document doc, Page page) throws MalformedURLException, IOException, DocumentException {
-		
-		PdfContentByte cb = writer.getDirectContentUnder();
-		cb.saveState();
+	private Image writeImage(OutputDocument output, PreparedPage prepared) throws DocumentException, IOException {
+		PdfWriter writer = output.writer;
+		ImageDigest digest = output.isDeduplicating() ? prepared.imageDigest : null;
+		PdfIndirectReference existing = digest != null ? output.findImage(digest) : null;
+		PdfIndirectReference ref = existing;
+
+		Image img = prepared.image;
+		if (prepared.passthroughImage != null) {
+			if (ref != null)
+				img = prepared.passthroughImage.createReference(ref);
+			else {
+				img = prepared.passthroughImage.writeImage(writer);
+				ref = img.getDirectReference();
+			}
+			placeImage(img, prepared);
+		}
+		else if (img != null && digest != null) {
+			if (ref != null)
+				img.setDirectReference(ref);
+			else {
+				//Write now to get the reference
+				ref = writer.getPdfIndirectReference();
+				writer.addDirectImageSimple(img, ref);
+			}
+		}
+		if (digest != null && existing == null && ref != null)
+			output.imageWritten(digest, ref);
+		return img;
+	}
+
+	/**
+	 * Loads the document page image for the prepared page (spanning the whole page). 
+	 * Of multi-page TIFFs only the given frame is read.
+	 */
+	void addImage(String filepath, int frame, PreparedPage prepared) throws MalformedURLException, IOException, DocumentException {
+		addImage(new ImageSource(filepath), frame, prepared);
+	}
+
+	/**
+	 * Loads the document page image (file or data in memory) for the prepared page (spanning the whole page).
+	 */
+	void addImage(ImageSource image, int frame, PreparedPage prepared) throws MalformedURLException, IOException, DocumentException {
 		
-		Image img = Image.getInstance(filepath);
+		//Compressed data can be copied as is (only the header is read here)
+		ImagePassthrough passthrough = null;
+		if (imagePassthrough) {
+			passthrough = ImagePassthrough.probe(image, frame);
+			//G4 images already within the target resolution are not recompressed
+			if (passthrough != null && (!imageProfile.isRecompress()
+					|| (passthrough.isBitonal() && passthrough.getDpi() > 0 && passthrough.getDpi() <= imageProfile.getTargetDpi()))) {
+				prepared.passthroughImage = passthrough;
+				return;
+			}
+		}
+
+		//Downsampling and recompression
+		Image img = null;
+		if (imageProfile.isRecompress())
+			img = new ImageRecompressor(imageProfile).recompress(image, frame);
+		if (img == null && passthrough != null) {
+			prepared.passthroughImage = passthrough;
+			return;
+		}
+
+		if (img == null)
+			img = loadImage(image, frame);
+		placeImage(img, prepared);
+
+		prepared.image = img;
+	}
+
+	/**
+	 * Loads an image with iText. For frames other than the first, the file has to be a TIFF.
+	 */
+	private static Image loadImage(ImageSource image, int frame) throws MalformedURLException, IOException, DocumentException {
+		if (frame == 0)
+			return image.getFile() != null ? Image.getInstance(image.getFile()) : Image.getInstance(image.getData());
+		RandomAccessFileOrArray source = new RandomAccessFileOrArray(image.createRandomAccessSource());
+		try {
+			//Only the image directory and data of the requested frame are read
+			Image img = TiffImage.getTiffImage(source, frame + 1);
+			if (img == null)
+				throw new IOException("Frame " + frame + " not found in " + image);
+			return img;
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * Positions the image so that it spans the whole page
+	 */
+	private void placeImage(Image img, PreparedPage prepared) {
 		img.setAbsolutePosition(0f, 0f);
 		//if (img.getScaledWidth() > 300 || img.getScaledHeight() > 300) {
 			//img.scaleToFit(300, 300);
 		//}
-		img.scaleToFit(page.getLayout().getWidth(), page.getLayout().getHeight());
-
-		cb.addImage(img);
-		
-		cb.restoreState();
-		
+		img.scaleToFit(prepared.width, prepared.height);
 	}
 	
 	/**
@@ -476,27 +1339,76 @@ public class PageToPdfConverter {
 	 * @return
 	 * @throws IOException
 	 */
-	private float calculateFontSize(String text, int width, int height) throws IOException {
-		
-		float sw = font.getWidth(text);
+	float calculateFontSize(String text, int width, int height) throws IOException {
 		
 		//float textHeight = font.getFontDescriptor().getFontBoundingBox().getHeight() / 1000 * fontSize * 0.865;
 		
 		//float fontSizeY = height * 1000.0f / (font.get().getFontBoundingBox().getHeight() * 0.865f);
-		float fontSizeX = width * 1000.0f / (sw * 0.865f);
-		
-		//Validate and reduce font size until it fits
-		Chunk chunk = new Chunk(text, new Font(font, fontSizeX));;
-		while (chunk.getWidthPoint() > width) {
-			fontSizeX -= 0.5f;
-			chunk = new Chunk(text, new Font(font, fontSizeX));
-		}
 		
 		//if (fontSizeX <= 0.0f && fontSizeY <= 0.0f)
 		//	return 12f;
 		
 		//return Math.min(fontSizeX, fontSizeY);
-		return fontSizeX;
+		return fitFontSize(metrics, text, width);
+	}
+	
+	/**
+	 * Calculates the largest font size for which the given text fits into the specified width.<br>
+	 * The size is an initial estimate, reduced in steps of 0.5pt until the text fits. Since the text width
+	 * is proportional to the font size, the number of steps is calculated directly from one width measurement.
+	 * @param metrics Metrics of the font to be used
+	 * @param text Text to fit
+	 * @param width Available width
+	 * @return Font size
+	 */
+	static float fitFontSize(GlyphMetrics metrics, String text, int width) {
+		
+		int sw = metrics.getWidth(text);
+		
+		float fontSizeX = width * 1000.0f / (sw * 0.865f);
+		if (sw <= 0 || width <= 0)
+			return fontSizeX;
+		
+		//Number of 0.5pt steps from the estimate down to the largest size that fits 
+		float maxFontSize = width * 1000.0f / sw;
+		int steps = (int)Math.ceil((fontSizeX - maxFontSize) / 0.5f);
+		if (steps < 0)
+			steps = 0;
+		float fontSize = fontSizeX - steps * 0.5f;
+		
+		//Correct rounding errors (same width calculation as iText: width * 0.001 * size)
+		if (steps > 0 && sw * 0.001f * (fontSize + 0.5f) <= width)
+			fontSize += 0.5f;
+		while (sw * 0.001f * fontSize > width)
+			fontSize -= 0.5f;
+		
+		return fontSize;
+	}
+
+	/**
+	 * Fits the given text into the given box using the font size for the height and
+	 * horizontal scaling for the width (one width measurement).
+	 * @param metrics Font metrics
+	 * @param text Text string
+	 * @param left Left of the box (PDF coordinates)
+	 * @param bottom Bottom of the box (PDF coordinates)
+	 * @param width Width of the box
+	 * @param height Height of the box
+	 * @return Positioned text item
+	 */
+	static PreparedPage.TextItem fitTextToBox(GlyphMetrics metrics, String text, float left, float bottom, float width, float height) {
+		float fontHeight = metrics.getFontAscent() - metrics.getFontDescent();
+		if (fontHeight <= 0)
+			fontHeight = 1000f;
+		float fontSize = height * 1000f / fontHeight;
+		
+		//Baseline above the bottom of the box by the descent
+		PreparedPage.TextItem item = new PreparedPage.TextItem(text, left, bottom - metrics.getFontDescent() * 0.001f * fontSize, fontSize);
+		
+		float textWidth = metrics.getWidthPoint(text, fontSize);
+		if (textWidth > 0 && width > 0)
+			item.horizontalScaling = width / textWidth * 100f;
+		return item;
 	}
 	
 	//private void addMetadata(PDDocument doc, Page page) {
@@ -504,4 +1416,43 @@ public class PageToPdfConverter {
 
 		
 	//}
+
+	/**
+	 * Receives the layout objects from the streaming PAGE XML reader and adds text and outlines to a new prepared page
+	 */
+	private class StreamingPageHandler implements PageXmlStreamReader.Handler {
+		private PreparedPage prepared;
+		private int pageHeight;
+		/** Outline groups by colour, per level */
+		private List<Map<BaseColor, PreparedPage.OutlineGroup>> outlines = new ArrayList<Map<BaseColor, PreparedPage.OutlineGroup>>();
+		private boolean[] outlineLevels = new boolean[] { addRegionOutlines, addTextLineOutlines, addWordOutlines, addGlyphOutlines };
+
+		StreamingPageHandler() {
+			for (int i=0; i<outlineLevels.length; i++)
+				outlines.add(new LinkedHashMap<BaseColor, PreparedPage.OutlineGroup>());
+		}
+
+		@Override
+		public void page(int width, int height) {
+			prepared = new PreparedPage(width, height);
+			pageHeight = height;
+		}
+
+		@Override
+		public void layoutObject(int level, ContentType type, Polygon coords, String text) throws IOException {
+			if (coords == null)
+				return;
+			long time = System.nanoTime();
+			if (type == textLevel) {
+				addText(prepared, text, coords, type == RegionType.TextRegion, pageHeight);
+				long now = System.nanoTime();
+				prepared.statistics.textTime += now - time;
+				time = now;
+			}
+			if (outlineLevels[level]) {
+				addOutline(prepared, outlines.get(level), coords, type, level, pageHeight);
+				prepared.statistics.outlineTimes[level] += System.nanoTime() - time;
+			}
+		}
+	}
 }
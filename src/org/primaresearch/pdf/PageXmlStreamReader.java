@@ -0,0 +1,292 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+import org.primaresearch.maths.geometry.Polygon;
+
+/**
+ * Streaming PAGE XML reader (StAX) that passes the outline and text of the layout objects of the requested levels
+ * (regions, text lines, words, glyphs) to a handler, without building the page object model.<br>
+ * All other elements (metadata, reading order, styles, levels below the lowest requested level etc.) are skipped.
+ * Supports the point lists of all PAGE versions (<code>points</code> attribute and <code>Point</code> elements).
+ * Can be used from any thread.
+ *
+ */
+class PageXmlStreamReader {
+	/** Levels (same indices as the outline levels, e.g. <code>OutputDocument.REGION_OUTLINES</code>) */
+	static final int REGIONS = OutputDocument.REGION_OUTLINES;
+	static final int TEXT_LINES = OutputDocument.TEXT_LINE_OUTLINES;
+	static final int WORDS = OutputDocument.WORD_OUTLINES;
+	static final int GLYPHS = OutputDocument.GLYPH_OUTLINES;
+
+	private static final XMLInputFactory factory = createFactory();
+	private static final Map<String, RegionType> regionTypes = new HashMap<String, RegionType>();
+	static {
+		regionTypes.put("TextRegion", RegionType.TextRegion);
+		regionTypes.put("ImageRegion", RegionType.ImageRegion);
+		regionTypes.put("LineDrawingRegion", RegionType.LineDrawingRegion);
+		regionTypes.put("GraphicRegion", RegionType.GraphicRegion);
+		regionTypes.put("TableRegion", RegionType.TableRegion);
+		regionTypes.put("ChartRegion", RegionType.ChartRegion);
+		regionTypes.put("SeparatorRegion", RegionType.SeparatorRegion);
+		regionTypes.put("MathsRegion", RegionType.MathsRegion);
+		regionTypes.put("ChemRegion", RegionType.ChemRegion);
+		regionTypes.put("MusicRegion", RegionType.MusicRegion);
+		regionTypes.put("AdvertRegion", RegionType.AdvertRegion);
+		regionTypes.put("NoiseRegion", RegionType.NoiseRegion);
+	}
+
+	/**
+	 * Receives the layout objects
+	 */
+	interface Handler {
+		/**
+		 * Called for the <code>Page</code> element, before any layout object
+		 */
+		void page(int width, int height) throws Exception;
+
+		/**
+		 * Called at the end of each layout object of a requested level (nested objects are passed first)
+		 * @param level Level of the object (e.g. <code>REGIONS</code>)
+		 * @param type Region type or low-level text type (<code>null</code> for unknown region types)
+		 * @param coords Outline (<code>null</code> if missing)
+		 * @param text Unicode text of the first text equivalent (<code>null</code> if missing)
+		 */
+		void layoutObject(int level, ContentType type, Polygon coords, String text) throws Exception;
+	}
+
+	private boolean[] levels;
+	private int lowestLevel = -1;
+
+	/**
+	 * Constructor
+	 * @param levels Levels to pass to the handler (indices <code>REGIONS</code> to <code>GLYPHS</code>)
+	 */
+	PageXmlStreamReader(boolean[] levels) {
+		this.levels = levels;
+		for (int i=0; i<levels.length; i++) {
+			if (levels[i])
+				lowestLevel = i;
+		}
+	}
+
+	/**
+	 * Reads the given PAGE XML file
+	 * @return <code>false</code> if the file has no <code>Page</code> element
+	 */
+	boolean read(String xmlFile, Handler handler) throws Exception {
+		InputStream in = new BufferedInputStream(new FileInputStream(xmlFile), 64 * 1024);
+		try {
+			return read(in, handler);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads PAGE XML from the given stream (not closed)
+	 * @return <code>false</code> if there is no <code>Page</code> element
+	 */
+	boolean read(InputStream in, Handler handler) throws Exception {
+		XMLStreamReader reader = factory.createXMLStreamReader(in);
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				if (!"Page".equals(reader.getLocalName()))
+					continue;
+				handler.page(parseInt(reader.getAttributeValue(null, "imageWidth")),
+							parseInt(reader.getAttributeValue(null, "imageHeight")));
+				if (lowestLevel >= 0)
+					readChildren(reader, handler, -1);
+				return true;
+			}
+			return false;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the layout object at the reader position (start element) to its end element
+	 * @param level Level of the object
+	 * @param type Type of the object
+	 */
+	private void readObject(XMLStreamReader reader, Handler handler, int level, ContentType type) throws Exception {
+		Polygon coords = null;
+		String text = null;
+		boolean deliver = levels[level];
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = reader.getLocalName();
+			if (deliver && "Coords".equals(name))
+				coords = readCoords(reader);
+			else if (deliver && "TextEquiv".equals(name) && text == null)
+				text = readTextEquiv(reader);
+			else if (!readChild(reader, handler, level, name))
+				skip(reader);
+		}
+		if (deliver)
+			handler.layoutObject(level, type, coords, text);
+	}
+
+	/**
+	 * Reads the child elements of the current element, passing on the layout objects
+	 * @param level Level of the current element (-1 for the page)
+	 */
+	private void readChildren(XMLStreamReader reader, Handler handler, int level) throws Exception {
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!readChild(reader, handler, level, reader.getLocalName()))
+				skip(reader);
+		}
+	}
+
+	/**
+	 * Reads the given child element if it is a layout object that is needed (itself or its content)
+	 * @param level Level of the parent (-1 for the page)
+	 * @return <code>false</code> if the element has not been read
+	 */
+	private boolean readChild(XMLStreamReader reader, Handler handler, int level, String name) throws Exception {
+		//Regions (can be nested)
+		if (level <= REGIONS && name.endsWith("Region")) {
+			RegionType type = regionTypes.get(name);
+			if (levels[REGIONS] || (type == RegionType.TextRegion && lowestLevel > REGIONS)) {
+				readObject(reader, handler, REGIONS, type);
+				return true;
+			}
+			//Nested text regions (e.g. in tables)
+			if (lowestLevel > REGIONS) {
+				readChildren(reader, handler, REGIONS);
+				return true;
+			}
+			return false;
+		}
+		if (level == REGIONS && lowestLevel >= TEXT_LINES && "TextLine".equals(name)) {
+			readObject(reader, handler, TEXT_LINES, LowLevelTextType.TextLine);
+			return true;
+		}
+		if (level == TEXT_LINES && lowestLevel >= WORDS && "Word".equals(name)) {
+			readObject(reader, handler, WORDS, LowLevelTextType.Word);
+			return true;
+		}
+		if (level == WORDS && lowestLevel >= GLYPHS && "Glyph".equals(name)) {
+			readObject(reader, handler, GLYPHS, LowLevelTextType.Glyph);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads a <code>Coords</code> element (points attribute or point elements)
+	 */
+	private static Polygon readCoords(XMLStreamReader reader) throws XMLStreamException {
+		Polygon polygon = new Polygon();
+		String points = reader.getAttributeValue(null, "points");
+		if (points != null) {
+			//"x1,y1 x2,y2 ..."
+			int value = 0, x = 0;
+			boolean negative = false, inNumber = false, haveX = false;
+			for (int i=0; i<=points.length(); i++) {
+				char c = i < points.length() ? points.charAt(i) : ' ';
+				if (c >= '0' && c <= '9') {
+					value = value * 10 + (c - '0');
+					inNumber = true;
+				}
+				else if (c == '-' && !inNumber)
+					negative = true;
+				else if (inNumber) {
+					if (negative)
+						value = -value;
+					if (haveX)
+						polygon.addPoint(x, value);
+					else
+						x = value;
+					haveX = !haveX;
+					value = 0;
+					negative = false;
+					inNumber = false;
+				}
+			}
+			skip(reader);
+			return polygon;
+		}
+		//<Point x=".." y=".."/> (PAGE 2009/2010)
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if ("Point".equals(reader.getLocalName()))
+				polygon.addPoint(parseInt(reader.getAttributeValue(null, "x")), parseInt(reader.getAttributeValue(null, "y")));
+			skip(reader);
+		}
+		return polygon;
+	}
+
+	/**
+	 * Reads the Unicode text of a <code>TextEquiv</code> element
+	 */
+	private static String readTextEquiv(XMLStreamReader reader) throws XMLStreamException {
+		String text = null;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if ("Unicode".equals(reader.getLocalName()))
+				text = reader.getElementText();
+			else
+				skip(reader);
+		}
+		return text;
+	}
+
+	/**
+	 * Skips the current element (reader at the start element) including its content
+	 */
+	private static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+	private static int parseInt(String value) {
+		if (value == null)
+			return 0;
+		return (int)Math.round(Double.parseDouble(value.trim()));
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		//No DTDs or external entities
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		return factory;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.BadPdfFormatException;
+import com.itextpdf.text.pdf.PRIndirectReference;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSmartCopy;
+import com.itextpdf.text.pdf.PdfString;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+
+/**
+ * Joins finished PDFs (e.g. the parts of a split output or PDFs of single pages) into one PDF, without converting
+ * the pages again. The page objects are copied as they are; identical resources (images, font programs etc.)
+ * are only written once. Outline layers with the same name are merged into one layer of the joined PDF.<br>
+ * Only one input PDF is open at a time (read partially), so any number of inputs can be joined.
+ *
+ */
+public class PdfMerger {
+	private boolean fullCompression = false;
+
+	/**
+	 * Write the cross-reference table and the objects other than streams into compressed object streams (PDF 1.5).
+	 * @param fullCompression Enable full compression (default: false)
+	 */
+	public void setFullCompression(boolean fullCompression) {
+		this.fullCompression = fullCompression;
+	}
+
+	/**
+	 * Joins the given PDF files. The output is written to a temporary file (<code>.part</code>) that
+	 * replaces the target when it is complete, so an existing target stays intact if merging fails.
+	 * @param pdfFiles Input PDFs in page order
+	 * @param targetPdf Output PDF file
+	 * @return Number of pages written (the target is not written if there are no pages)
+	 * @throws IllegalArgumentException The target is one of the inputs
+	 */
+	public int merge(List<String> pdfFiles, String targetPdf) throws IOException, DocumentException {
+		File target = new File(targetPdf);
+		for (String pdfFile : pdfFiles) {
+			if (new File(pdfFile).getCanonicalPath().equals(target.getCanonicalPath()))
+				throw new IllegalArgumentException("The output is one of the inputs: " + pdfFile);
+		}
+		File part = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".part");
+		int pages = 0;
+		try {
+			OutputStream out = new FileOutputStream(part);
+			try {
+				pages = merge(pdfFiles, out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			if (pages == 0)
+				part.delete();
+		}
+		if (pages == 0)
+			return 0;
+		try {
+			Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException exc) {
+			Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return pages;
+	}
+
+	/**
+	 * Joins the given PDF files
+	 * @param pdfFiles Input PDFs in page order
+	 * @param target Output stream for the PDF (not closed)
+	 * @return Number of pages written (nothing is written to the stream if there are no pages)
+	 */
+	public int merge(List<String> pdfFiles, OutputStream target) throws IOException, DocumentException {
+		Document document = new Document();
+		LayerMergingCopy copy = new LayerMergingCopy(document, target);
+		copy.setCloseStream(false);
+		if (fullCompression)
+			copy.setFullCompression(); //PDF 1.5
+		int pageCount = 0;
+		try {
+			for (String pdfFile : pdfFiles) {
+				//Partial reading (objects are only loaded when they are copied)
+				PdfReader reader = new PdfReader(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createBestSource(pdfFile)), null);
+				try {
+					for (int i=1; i<=reader.getNumberOfPages(); i++) {
+						if (pageCount == 0)
+							document.open();
+						copy.addPage(copy.getImportedPage(reader, i));
+						pageCount++;
+					}
+					copy.freeReader(reader);
+				} finally {
+					reader.close();
+				}
+			}
+			copy.addLayers();
+		} finally {
+			//Nothing is written if there are no pages
+			if (pageCount > 0)
+				document.close();
+		}
+		return pageCount;
+	}
+
+	/**
+	 * Copy that maps optional content groups (layers) of all inputs with the same name to one group,
+	 * and adds the groups to the catalog of the joined PDF (not done by <code>PdfCopy</code>)
+	 */
+	private static class LayerMergingCopy extends PdfSmartCopy {
+		/** Layers by name */
+		private Map<String, PdfIndirectReference> layers = new LinkedHashMap<String, PdfIndirectReference>();
+
+		LayerMergingCopy(Document document, OutputStream os) throws DocumentException {
+			super(document, os);
+		}
+
+		@Override
+		protected PdfIndirectReference copyIndirect(PRIndirectReference in) throws IOException, BadPdfFormatException {
+			PdfObject obj = PdfReader.getPdfObjectRelease(in);
+			if (obj == null || !obj.isDictionary() || !PdfName.OCG.equals(((PdfDictionary)obj).getAsName(PdfName.TYPE)))
+				return super.copyIndirect(in);
+			PdfString name = ((PdfDictionary)obj).getAsString(PdfName.NAME);
+			String key = name != null ? name.toUnicodeString() : "";
+			PdfIndirectReference ref = layers.get(key);
+			if (ref == null) {
+				ref = super.copyIndirect(in);
+				layers.put(key, ref);
+			}
+			return ref;
+		}
+
+		/**
+		 * Adds the optional content properties for the copied layers to the catalog (all layers visible)
+		 */
+		void addLayers() {
+			if (layers.isEmpty())
+				return;
+			PdfArray groups = new PdfArray();
+			for (PdfIndirectReference ref : layers.values())
+				groups.add(ref);
+			PdfDictionary defaultConfig = new PdfDictionary();
+			defaultConfig.put(PdfName.ORDER, groups);
+			PdfDictionary properties = new PdfDictionary();
+			properties.put(PdfName.OCGS, groups);
+			properties.put(PdfName.D, defaultConfig);
+			getExtraCatalog().put(PdfName.OCPROPERTIES, properties);
+			//Optional content requires PDF 1.5
+			setAtLeastPdfVersion(PdfWriter.VERSION_1_5);
+		}
+	}
+}
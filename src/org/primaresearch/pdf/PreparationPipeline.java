@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Prepares pages for the PDF writer, either on the calling thread or on a pool of worker threads.<br>
+ * Prepared pages are always returned in input order. With worker threads, only a limited number of
+ * pages is prepared ahead of the consumer (the PDF writer), so fast workers cannot fill up the memory.
+ * <br><br>
+ * <code>next()</code> returns <code>null</code> for pages that could not be prepared
+ * (after the given number of attempts).
+ *
+ */
+class PreparationPipeline implements Iterator<PreparedPage> {
+	private PageToPdfConverter converter;
+	private Iterator<PageInput> inputs;
+	private ExecutorService executor = null;
+	private int maxPending;
+	private int attempts;
+	/** Receives the PAGE XML files of pages that failed (<code>null</code> if not needed) */
+	private List<String> failures;
+	private Deque<Future<PreparedPage>> pending = new ArrayDeque<Future<PreparedPage>>();
+	private Deque<PageInput> pendingInputs = new ArrayDeque<PageInput>();
+
+	/**
+	 * Constructor
+	 * @param converter Converter used to prepare the pages
+	 * @param inputs Pages to prepare
+	 * @param threads Number of worker threads (1 or less: prepare on the calling thread)
+	 */
+	PreparationPipeline(PageToPdfConverter converter, Iterator<PageInput> inputs, int threads) {
+		this(converter, inputs, threads, 1, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param converter Converter used to prepare the pages
+	 * @param inputs Pages to prepare
+	 * @param threads Number of worker threads (1 or less: prepare on the calling thread)
+	 * @param attempts Number of times a page is prepared before it counts as failed (e.g. I/O errors)
+	 * @param failures Receives the PAGE XML files of pages that failed, in addition to the conversion listener
+	 *   of the converter (<code>null</code> if not needed)
+	 */
+	PreparationPipeline(PageToPdfConverter converter, Iterator<PageInput> inputs, int threads, int attempts, List<String> failures) {
+		this.converter = converter;
+		this.inputs = inputs;
+		this.attempts = Math.max(1, attempts);
+		this.failures = failures;
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "page-preparation");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			maxPending = threads * 2;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !pending.isEmpty() || inputs.hasNext();
+	}
+
+	@Override
+	public PreparedPage next() {
+		if (executor == null) {
+			PageInput input = inputs.next();
+			try {
+				return prepare(input);
+			} catch (Exception exc) {
+				failed(input, exc);
+				return null;
+			}
+		}
+
+		fill();
+		Future<PreparedPage> future = pending.removeFirst();
+		PageInput input = pendingInputs.removeFirst();
+		fill(); //Keep the workers busy while the caller is writing
+		try {
+			return future.get();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(exc);
+		} catch (ExecutionException exc) {
+			failed(input, exc.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * Prepares the given page, again if it fails, up to the maximum number of attempts
+	 */
+	private PreparedPage prepare(PageInput input) throws Exception {
+		for (int attempt=1; ; attempt++) {
+			try {
+				return converter.preparePage(input);
+			} catch (Exception exc) {
+				if (attempt >= attempts)
+					throw exc;
+			}
+		}
+	}
+
+	/**
+	 * Reports a page that could not be prepared
+	 */
+	private void failed(PageInput input, Throwable error) {
+		error.printStackTrace();
+		if (failures != null)
+			failures.add(input.getXmlFile() != null ? input.getXmlFile() : String.valueOf(error));
+		if (converter.getConversionListener() != null)
+			converter.getConversionListener().pageFailed(input.getXmlFile(), error);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stops the worker threads
+	 */
+	void close() {
+		if (executor != null)
+			executor.shutdownNow();
+	}
+
+	/**
+	 * Submits inputs until the maximum number of pending pages is reached (back-pressure)
+	 */
+	private void fill() {
+		while (pending.size() < maxPending && inputs.hasNext()) {
+			final PageInput input = inputs.next();
+			pendingInputs.addLast(input);
+			pending.addLast(executor.submit(new Callable<PreparedPage>() {
+				@Override
+				public PreparedPage call() throws Exception {
+					return prepare(input);
+				}
+			}));
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Image;
+
+/**
+ * Content of one PDF page, prepared from a PAGE object and ready to be written.<br>
+ * Preparing (parsing, image decoding, font fitting, outline geometry) does not need the PDF writer
+ * and can therefore run on any thread. All coordinates are already in PDF space (origin bottom left).
+ *
+ */
+class PreparedPage {
+	int width;
+	int height;
+	Image image;
+	/** Image to be copied to the PDF without decoding (instead of <code>image</code>) */
+	ImagePassthrough passthroughImage;
+	/** Identifies the image data (<code>null</code> if the image is not to be deduplicated) */
+	ImageDigest imageDigest;
+	List<TextItem> textItems = new ArrayList<TextItem>();
+	/** Outlines grouped by level and colour (in drawing order) */
+	List<OutlineGroup> outlines = new ArrayList<OutlineGroup>();
+	/** Timings and counts (completed when the page is written) */
+	PageStatistics statistics = new PageStatistics();
+
+	PreparedPage(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Text string of the hidden text layer with position, font size and horizontal scaling
+	 */
+	static class TextItem {
+		String text;
+		float x;
+		float y;
+		float fontSize;
+		/** Horizontal scaling in percent (100 = normal width) */
+		float horizontalScaling = 100f;
+
+		TextItem(String text, float x, float y, float fontSize) {
+			this.text = text;
+			this.x = x;
+			this.y = y;
+			this.fontSize = fontSize;
+		}
+	}
+
+	/**
+	 * Closed polygon outlines of one level (regions, text lines, words or glyphs) with the same colour,
+	 * drawn as one path
+	 */
+	static class OutlineGroup {
+		/** Outline level (see <code>OutputDocument.REGION_OUTLINES</code> etc.) */
+		int level;
+		BaseColor color;
+		/** Polygons with x and y values alternating */
+		List<float[]> polygons = new ArrayList<float[]>();
+
+		OutlineGroup(int level, BaseColor color) {
+			this.level = level;
+			this.color = color;
+		}
+	}
+}
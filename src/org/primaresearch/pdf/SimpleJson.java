@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the job lines of the conversion server: flat objects with string, number,
+ * boolean and null values (nested objects and arrays are not supported).
+ *
+ */
+class SimpleJson {
+
+	/**
+	 * Parses a flat JSON object
+	 * @param json JSON text, e.g. <code>{"xml": "page.xml", "frame": 2}</code>
+	 * @return Values by name as text (numbers and booleans as written, <code>null</code> values are omitted)
+	 * @throws IllegalArgumentException Syntax error or unsupported value
+	 */
+	static Map<String, String> parseObject(String json) {
+		Parser parser = new Parser(json);
+		parser.skipWhitespace();
+		Map<String, String> values = parser.parseObject();
+		parser.skipWhitespace();
+		if (parser.pos < json.length())
+			throw parser.error("End of line expected");
+		return values;
+	}
+
+	/**
+	 * Returns the given text as JSON string (with quotes)
+	 */
+	static String quote(String value) {
+		if (value == null)
+			return "null";
+		StringBuilder str = new StringBuilder(value.length() + 2);
+		str.append('"');
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': str.append("\\\""); break;
+				case '\\': str.append("\\\\"); break;
+				case '\n': str.append("\\n"); break;
+				case '\r': str.append("\\r"); break;
+				case '\t': str.append("\\t"); break;
+				default:
+					if (c < 0x20)
+						str.append(String.format("\\u%04x", (int)c));
+					else
+						str.append(c);
+			}
+		}
+		return str.append('"').toString();
+	}
+
+	private static class Parser {
+		private String json;
+		private int pos = 0;
+
+		Parser(String json) {
+			this.json = json;
+		}
+
+		Map<String, String> parseObject() {
+			Map<String, String> values = new LinkedHashMap<String, String>();
+			expect('{');
+			skipWhitespace();
+			if (peek() == '}') {
+				pos++;
+				return values;
+			}
+			while (true) {
+				skipWhitespace();
+				String name = parseString();
+				skipWhitespace();
+				expect(':');
+				skipWhitespace();
+				String value = parseValue();
+				if (value != null)
+					values.put(name, value);
+				skipWhitespace();
+				char c = next();
+				if (c == '}')
+					return values;
+				if (c != ',')
+					throw error("',' or '}' expected");
+			}
+		}
+
+		private String parseValue() {
+			char c = peek();
+			if (c == '"')
+				return parseString();
+			if (c == '{' || c == '[')
+				throw error("Nested objects and arrays are not supported");
+			int start = pos;
+			while (pos < json.length() && "{}[],: \t\r\n\"".indexOf(json.charAt(pos)) < 0)
+				pos++;
+			String literal = json.substring(start, pos);
+			if (literal.equals("null"))
+				return null;
+			if (literal.equals("true") || literal.equals("false"))
+				return literal;
+			try {
+				Double.parseDouble(literal);
+			} catch (NumberFormatException exc) {
+				throw error("Invalid value '" + literal + "'");
+			}
+			return literal;
+		}
+
+		private String parseString() {
+			expect('"');
+			StringBuilder str = new StringBuilder();
+			while (true) {
+				char c = next();
+				if (c == '"')
+					return str.toString();
+				if (c != '\\') {
+					str.append(c);
+					continue;
+				}
+				c = next();
+				switch (c) {
+					case '"': case '\\': case '/': str.append(c); break;
+					case 'b': str.append('\b'); break;
+					case 'f': str.append('\f'); break;
+					case 'n': str.append('\n'); break;
+					case 'r': str.append('\r'); break;
+					case 't': str.append('\t'); break;
+					case 'u':
+						if (pos + 4 > json.length())
+							throw error("Invalid escape sequence");
+						try {
+							str.append((char)Integer.parseInt(json.substring(pos, pos + 4), 16));
+						} catch (NumberFormatException exc) {
+							throw error("Invalid escape sequence");
+						}
+						pos += 4;
+						break;
+					default:
+						throw error("Invalid escape sequence");
+				}
+			}
+		}
+
+		void skipWhitespace() {
+			while (pos < json.length() && Character.isWhitespace(json.charAt(pos)))
+				pos++;
+		}
+
+		private char peek() {
+			if (pos >= json.length())
+				throw error("Unexpected end of line");
+			return json.charAt(pos);
+		}
+
+		private char next() {
+			char c = peek();
+			pos++;
+			return c;
+		}
+
+		private void expect(char c) {
+			if (next() != c)
+				throw error("'" + c + "' expected");
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + pos);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Writes the page statistics to a CSV file (one line per page, times in milliseconds).
+ * Failed pages are written with the error message. Can be shared by several converter threads.
+ *
+ */
+public class StatisticsCsvWriter implements ConversionListener, Closeable {
+	private PrintWriter out;
+
+	/**
+	 * Constructor (creates the file and writes the header line)
+	 * @param csvFile Target file
+	 */
+	public StatisticsCsvWriter(String csvFile) throws IOException {
+		out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8")));
+		out.println("xml,image,page,xml_ms,image_ms,text_ms,region_outlines_ms,line_outlines_ms,word_outlines_ms,glyph_outlines_ms,"
+					+ "write_ms,total_ms,text_objects,glyphs,polygons,vertices,error");
+	}
+
+	@Override
+	public synchronized void pageConverted(PageStatistics s) {
+		out.println(quote(s.getXmlFile()) + "," + quote(s.getImageFile()) + "," + s.getPageNumber()
+					+ "," + ms(s.getXmlLoadTime()) + "," + ms(s.getImageTime()) + "," + ms(s.getTextTime())
+					+ "," + ms(s.getOutlineTime(0)) + "," + ms(s.getOutlineTime(1)) + "," + ms(s.getOutlineTime(2)) + "," + ms(s.getOutlineTime(3))
+					+ "," + ms(s.getWriteTime()) + "," + ms(s.getTotalTime())
+					+ "," + s.getTextObjects() + "," + s.getGlyphs() + "," + s.getPolygons() + "," + s.getPolygonVertices() + ",");
+	}
+
+	@Override
+	public synchronized void pageFailed(String xmlFile, Throwable error) {
+		out.println(quote(xmlFile) + ",,,,,,,,,,,,,,,," + quote(String.valueOf(error)));
+	}
+
+	@Override
+	public synchronized void close() {
+		out.close();
+	}
+
+	private static String ms(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+	}
+
+	private static String quote(String value) {
+		if (value == null)
+			return "";
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
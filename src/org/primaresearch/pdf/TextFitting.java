@@ -0,0 +1,33 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.pdf;
+
+/**
+ * Method for fitting the hidden text into the bounding box of its layout object.
+ *
+ */
+public enum TextFitting {
+	/**
+	 * Largest font size (in 0.5pt steps) for which the text fits the box width,
+	 * text centred vertically. Text lines of a region use the smallest font size of all lines.
+	 */
+	FONT_SIZE,
+	/**
+	 * Font size from the box height, text stretched or compressed to the box width
+	 * (horizontal scaling). The text covers the box exactly.
+	 */
+	HORIZONTAL_SCALING
+}
@@ -17,15 +17,69 @@ package org.primaresearch.pdf;
 
 import static org.junit.Assert.*;
 
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.primaresearch.dla.page.Page;
 import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
 import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+import org.primaresearch.maths.geometry.Polygon;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Chunk;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.ICC_Profile;
+import com.itextpdf.text.pdf.PRIndirectReference;
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.codec.CCITTG4Encoder;
 
 public class PageToPdfConverterTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
 	@Test
 	public void test() {
@@ -69,4 +123,1339 @@ public class PageToPdfConverterTest {
 			fail();
 		}
 	}
+
+	@Test
+	public void testFitFontSize() {
+
+		try {
+			BaseFont font = BaseFont.createFont(BaseFont.HELVETICA, BaseFont.CP1252, BaseFont.NOT_EMBEDDED);
+			GlyphMetrics metrics = new GlyphMetrics(font);
+			String[] texts = new String[] { "i", "W", "Word", "text line", "A much longer line of text, with punctuation.",
+											"\u00e4\u00f6\u00fc\u00df \u00e9\u00e8", "1234567890", "mmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmm" };
+			Random random = new Random(42);
+			for (String text : texts) {
+				for (int i=0; i<200; i++) {
+					int width = 1 + random.nextInt(3000);
+					float expected = fitFontSizeIteratively(font, text, width);
+					float actual = PageToPdfConverter.fitFontSize(metrics, text, width);
+					assertEquals(text + " / " + width, expected, actual, 0.01f);
+					assertTrue(font.getWidthPoint(text, actual) <= width);
+				}
+				//Metric tables
+				assertEquals(font.getWidth(text), metrics.getWidth(text));
+				assertEquals(font.getAscent(text), metrics.getAscent(text));
+				assertEquals(font.getDescent(text), metrics.getDescent(text));
+			}
+		} catch(Exception exc) {
+			exc.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testFitTextToBox() {
+
+		try {
+			BaseFont font = BaseFont.createFont(BaseFont.HELVETICA, BaseFont.CP1252, BaseFont.NOT_EMBEDDED);
+			GlyphMetrics metrics = new GlyphMetrics(font);
+			String[] texts = new String[] { "i", "Word", "A much longer line of text, with punctuation." };
+			Random random = new Random(42);
+			for (String text : texts) {
+				for (int i=0; i<100; i++) {
+					float width = 1 + random.nextInt(3000);
+					float height = 1 + random.nextInt(200);
+					PreparedPage.TextItem item = PageToPdfConverter.fitTextToBox(metrics, text, 10f, 20f, width, height);
+					//Scaled text width matches the box width
+					assertEquals(text, width, font.getWidthPoint(text, item.fontSize) * item.horizontalScaling / 100f, width * 0.001f);
+					//Font ascent and descent match the top and bottom of the box
+					assertEquals(text, 20f, item.y + font.getFontDescriptor(BaseFont.DESCENT, item.fontSize), height * 0.001f);
+					assertEquals(text, 20f + height, item.y + font.getFontDescriptor(BaseFont.ASCENT, item.fontSize), height * 0.001f);
+					assertEquals(10f, item.x, 0f);
+				}
+			}
+		} catch(Exception exc) {
+			exc.printStackTrace();
+			fail();
+		}
+	}
+
+	@Test
+	public void testFontRegistry() throws Exception {
+		final String fontFile = findTrueTypeFont();
+		final FontRegistry registry = new FontRegistry();
+		BaseFont subset = registry.getFont(fontFile, FontEmbedding.SUBSET);
+		assertSame(subset, registry.getFont(fontFile, FontEmbedding.SUBSET));
+		BaseFont notEmbedded = registry.getFont(fontFile, FontEmbedding.NONE);
+		assertNotSame(subset, notEmbedded);
+		assertSame(notEmbedded, registry.getFont(fontFile, FontEmbedding.NONE));
+		//Helvetica regardless of the embedding
+		assertSame(registry.getFont(null, FontEmbedding.SUBSET), registry.getFont(null, FontEmbedding.FULL));
+		assertEquals(3, registry.getMisses());
+		assertEquals(3, registry.getHits());
+
+		//Loaded once for concurrent requests
+		registry.clear();
+		final List<BaseFont> fonts = Collections.synchronizedList(new ArrayList<BaseFont>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i=0; i<4; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						fonts.add(registry.getFont(fontFile, FontEmbedding.FULL));
+					} catch (IOException exc) {
+						exc.printStackTrace();
+					}
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(4, fonts.size());
+		for (BaseFont font : fonts)
+			assertSame(fonts.get(0), font);
+		assertEquals(1, registry.getMisses());
+
+		//Failed loads are not remembered
+		File missing = new File(createTempFolder(), "missing.ttf");
+		for (int i=0; i<2; i++) {
+			try {
+				registry.getFont(missing.getPath(), FontEmbedding.SUBSET);
+				fail();
+			} catch (IOException exc) {
+			}
+		}
+		assertEquals(3, registry.getMisses());
+	}
+
+	@Test
+	public void testFontEmbedding() throws Exception {
+		String fontFile = findTrueTypeFont();
+		File folder = createTempFolder();
+		Map<FontEmbedding, Long> embeddedSizes = new HashMap<FontEmbedding, Long>();
+		for (FontEmbedding embedding : FontEmbedding.values()) {
+			PageToPdfConverter converter = new GeneratedPageConverter();
+			converter.setFontFilePath(fontFile);
+			converter.setFontEmbedding(embedding);
+			File target = new File(folder, embedding + ".pdf");
+			assertEquals(1, converter.convert(generatedPages(1, 1).iterator(), target.getPath()));
+			embeddedSizes.put(embedding, PageToPdfConverter.getEmbeddedFontSize(target.getPath()));
+
+			PdfReader reader = new PdfReader(target.getPath());
+			PdfDictionary fonts = reader.getPageN(1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.FONT);
+			assertEquals(1, fonts.size());
+			PdfDictionary font = fonts.getAsDict(fonts.getKeys().iterator().next());
+			String baseFont = PdfName.decodeName(font.getAsName(PdfName.BASEFONT).toString());
+			//Subset fonts have a tag before the name (e.g. ABCDEF+Arial)
+			assertEquals(embedding == FontEmbedding.SUBSET, baseFont.matches("[A-Z]{6}\\+.*"));
+			assertEquals(embedding == FontEmbedding.NONE ? PdfName.TRUETYPE : PdfName.TYPE0, font.getAsName(PdfName.SUBTYPE));
+			reader.close();
+		}
+		assertEquals(Long.valueOf(0), embeddedSizes.get(FontEmbedding.NONE));
+		assertTrue(embeddedSizes.get(FontEmbedding.SUBSET) > 0);
+		assertTrue(embeddedSizes.get(FontEmbedding.SUBSET) < embeddedSizes.get(FontEmbedding.FULL));
+		assertEquals(new File(fontFile).length(), (long)embeddedSizes.get(FontEmbedding.FULL));
+	}
+
+	@Test
+	public void testJobJson() {
+		Map<String, String> job = SimpleJson.parseObject(
+				" {\"id\": \"a\\\"b\\u00e9\\n\", \"frame\" : 2, \"append\":true, \"font\": null, \"pdf\": \"C:\\\\out.pdf\"} ");
+		assertEquals("a\"b\u00e9\n", job.get("id"));
+		assertEquals("2", job.get("frame"));
+		assertEquals("true", job.get("append"));
+		assertEquals("C:\\out.pdf", job.get("pdf"));
+		assertFalse(job.containsKey("font"));
+		//Round trip
+		assertEquals(job.get("id"), SimpleJson.parseObject("{\"id\": " + SimpleJson.quote(job.get("id")) + "}").get("id"));
+
+		for (String invalid : new String[] { "", "{", "{\"a\": [1]}", "{\"a\": {}}", "{\"a\": x}", "{\"a\": 1} 2" }) {
+			try {
+				SimpleJson.parseObject(invalid);
+				fail(invalid);
+			} catch (IllegalArgumentException exc) {
+			}
+		}
+	}
+
+	@Test
+	public void testJobOptions() throws Exception {
+		ConverterOptions options = new ConverterOptions();
+		assertTrue(options.set("text-fitting", "scale"));
+		assertEquals(TextFitting.HORIZONTAL_SCALING, options.textFitting);
+		assertTrue(options.set("compression", "full"));
+		assertTrue(options.set("text-source", "W"));
+		assertTrue(options.set("outlines", "RG"));
+		assertTrue(options.set("compression-level", "9"));
+		assertEquals(9, options.compressionLevel);
+		assertFalse(options.set("unknown", "1"));
+		String[][] invalid = new String[][] { { "text-fitting", "scal" }, { "compression", "ful" }, { "text-source", "x" },
+				{ "text-source", "RW" }, { "outlines", "rx" }, { "font-embedding", "partial" }, { "xml-reader", "dom" },
+				{ "image-profile", "web" }, { "split-size", "20X" }, { "compression-level", "12" }, { "compression-level", "-1" },
+				{ "compression-level", "high" } };
+		for (String[] option : invalid) {
+			try {
+				options.set(option[0], option[1]);
+				fail(option[0] + " " + option[1]);
+			} catch (IllegalArgumentException exc) {
+			}
+		}
+
+		//Invalid jobs are answered before they are queued
+		String jobs = "{\"id\": \"1\", \"xml\": \"a.xml\", \"image\": \"a.tif\", \"pdf\": \"a.pdf\", \"frame\": \"x\"}\n"
+				+ "{\"id\": \"2\", \"xml\": \"a.xml\", \"image\": \"a.tif\", \"pdf\": \"a.pdf\", \"text-fitting\": \"scal\"}\n"
+				+ "{\"id\": \"3\", \"xml\": \"a.xml\", \"pdf\": \"a.pdf\"}\n";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ConversionServer(new ConverterOptions(), createTempFolder(), 1, 10).serve(new ByteArrayInputStream(jobs.getBytes("UTF-8")), out);
+		String[] responses = out.toString("UTF-8").trim().split("\\r?\\n");
+		assertEquals(3, responses.length);
+		assertTrue(responses[0], responses[0].contains("\"status\": \"error\"") && responses[0].contains("'frame'"));
+		assertTrue(responses[1], responses[1].contains("\"status\": \"error\"") && responses[1].contains("'text-fitting'"));
+		assertTrue(responses[2], responses[2].contains("Missing 'image'"));
+	}
+
+	@Test
+	public void testServerRoot() throws Exception {
+		File root = createTempFolder();
+		File outside = createTempFolder();
+		File xml = new File(root, "p1.xml");
+		writeFile(xml, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\">"
+				+ "<Page imageWidth=\"40\" imageHeight=\"60\"></Page></PcGts>").getBytes("UTF-8"));
+		ImageIO.write(new BufferedImage(40, 60, BufferedImage.TYPE_BYTE_GRAY), "png", new File(root, "p1.png"));
+		File target = new File(outside, "p1.pdf");
+
+		//Relative paths are resolved against the root, paths outside are rejected before the job is queued
+		String jobs = "{\"id\": \"1\", \"xml\": \"p1.xml\", \"image\": \"p1.png\", \"pdf\": \"p1.pdf\", \"xml-reader\": \"streaming\"}\n"
+				+ "{\"id\": \"2\", \"xml\": \"p1.xml\", \"image\": \"p1.png\", \"pdf\": " + SimpleJson.quote(target.getPath()) + "}\n"
+				+ "{\"id\": \"3\", \"xml\": \"p1.xml\", \"image\": \"p1.png\", \"pdf\": "
+				+ SimpleJson.quote("../" + outside.getName() + "/p1.pdf") + "}\n"
+				+ "{\"id\": \"4\", \"xml\": \"sub/../../p1.xml\", \"image\": \"p1.png\", \"pdf\": \"p2.pdf\"}\n"
+				+ "{\"id\": \"5\", \"xml\": \"p1.xml\", \"image\": \"p1.png\", \"pdf\": \".\"}\n";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ConversionServer(new ConverterOptions(), root, 1, 10).serve(new ByteArrayInputStream(jobs.getBytes("UTF-8")), out);
+		String[] responses = out.toString("UTF-8").trim().split("\\r?\\n");
+		assertEquals(5, responses.length);
+		for (String response : responses) {
+			if (response.contains("\"id\": \"1\""))
+				assertTrue(response, response.contains("\"status\": \"ok\""));
+			else
+				assertTrue(response, response.contains("\"status\": \"error\"") && response.contains("outside the server root"));
+		}
+		assertTrue(new File(root, "p1.pdf").exists());
+		assertFalse(target.exists());
+		assertFalse(new File(root, "p2.pdf").exists());
+	}
+
+	@Test
+	public void testUnknownArgument() throws Exception {
+		File folder = createTempFolder();
+		File xml = new File(folder, "p1.xml");
+		writeFile(xml, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\">"
+				+ "<Page imageWidth=\"40\" imageHeight=\"60\"></Page></PcGts>").getBytes("UTF-8"));
+		File image = new File(folder, "p1.png");
+		ImageIO.write(new BufferedImage(40, 60, BufferedImage.TYPE_BYTE_GRAY), "png", image);
+
+		//Unknown option with a value: nothing is converted (the value is not taken as the next argument)
+		File target = new File(folder, "unknown.pdf");
+		CommandLineTool.main(new String[] { "-xml", xml.getPath(), "-image", image.getPath(), "-pdf", target.getPath(),
+				"-xml-reader", "streaming", "-colour", "-append" });
+		assertFalse(target.exists());
+
+		target = new File(folder, "known.pdf");
+		CommandLineTool.main(new String[] { "-xml", xml.getPath(), "-image", image.getPath(), "-pdf", target.getPath(),
+				"-xml-reader", "streaming" });
+		assertTrue(target.exists());
+	}
+
+	@Test
+	public void testCompression() throws Exception {
+		File folder = createTempFolder();
+		GeneratedPageConverter converter = new GeneratedPageConverter();
+		converter.outlines = true;
+
+		//Full compression: objects in object streams, cross-reference stream
+		File full = new File(folder, "full.pdf");
+		converter.setFullCompression(true);
+		assertEquals(5, converter.convert(generatedPages(1, 5).iterator(), full.getPath()));
+		PdfReader reader = new PdfReader(full.getPath());
+		assertTrue(reader.isNewXrefType());
+		reader.close();
+		//The reader does not return the object streams themselves
+		assertTrue(new String(Files.readAllBytes(full.toPath()), "ISO-8859-1").contains("/ObjStm"));
+		converter.setFullCompression(false);
+		File normal = new File(folder, "normal.pdf");
+		assertEquals(5, converter.convert(generatedPages(1, 5).iterator(), normal.getPath()));
+		reader = new PdfReader(normal.getPath());
+		assertFalse(reader.isNewXrefType());
+		reader.close();
+		assertFalse(new String(Files.readAllBytes(normal.toPath()), "ISO-8859-1").contains("/ObjStm"));
+
+		//Higher compression level, smaller content streams
+		long[] sizes = new long[10];
+		for (int level : new int[] { 0, 1, 9 }) {
+			File target = new File(folder, "level" + level + ".pdf");
+			converter.setCompressionLevel(level);
+			assertEquals(5, converter.convert(generatedPages(1, 5).iterator(), target.getPath()));
+			sizes[level] = target.length();
+		}
+		assertTrue(sizes[1] < sizes[0]);
+		assertTrue(sizes[9] <= sizes[1]);
+	}
+
+	@Test
+	public void testStreamingXmlReader() throws Exception {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2010-03-19\"><Metadata/>"
+				+ "<Page imageWidth=\"100\" imageHeight=\"200\"><ReadingOrder/>"
+				+ "<ImageRegion id=\"r0\"><Coords><Point x=\"1\" y=\"2\"/><Point x=\"3\" y=\"2\"/><Point x=\"3\" y=\"4\"/></Coords></ImageRegion>"
+				+ "<TextRegion id=\"r1\"><Coords points=\"10,10 90,10 90,50 10,50\"/>"
+				+ "<TextLine id=\"l1\"><Coords points=\"10,10 90,10 90,30 10,30\"/>"
+				+ "<Word id=\"w1\"><Coords points=\"10,10 40,10 40,30 10,30\"/><TextEquiv><Unicode>A&amp;B</Unicode></TextEquiv></Word>"
+				+ "<TextEquiv><Unicode>A&amp;B c</Unicode></TextEquiv></TextLine>"
+				+ "<TextEquiv index=\"1\"><Unicode>first</Unicode></TextEquiv><TextEquiv index=\"2\"><Unicode>second</Unicode></TextEquiv>"
+				+ "</TextRegion></Page></PcGts>";
+		final List<String> objects = new ArrayList<String>();
+		PageXmlStreamReader.Handler handler = new PageXmlStreamReader.Handler() {
+			@Override
+			public void page(int width, int height) {
+				objects.add(width + "x" + height);
+			}
+			@Override
+			public void layoutObject(int level, ContentType type, Polygon coords, String text) {
+				objects.add(level + " " + coords.getSize() + " " + text);
+			}
+		};
+
+		//Regions and words (text lines are read but not passed on)
+		boolean[] levels = new boolean[] { true, false, true, false };
+		assertTrue(new PageXmlStreamReader(levels).read(new ByteArrayInputStream(xml.getBytes("UTF-8")), handler));
+		assertEquals(Arrays.asList("100x200", "0 3 null", "2 4 A&B", "0 4 first"), objects);
+
+		//Text lines only
+		objects.clear();
+		levels = new boolean[] { false, true, false, false };
+		assertTrue(new PageXmlStreamReader(levels).read(new ByteArrayInputStream(xml.getBytes("UTF-8")), handler));
+		assertEquals(Arrays.asList("100x200", "1 4 A&B c"), objects);
+
+		//No page
+		assertFalse(new PageXmlStreamReader(levels).read(new ByteArrayInputStream("<PcGts/>".getBytes("UTF-8")), handler));
+	}
+
+	@Test
+	public void testImageDeduplication() throws Exception {
+		File folder = createTempFolder();
+		File a = writeFile(new File(folder, "a.jpg"), new byte[] { 1, 2, 3, 4 });
+		File copy = writeFile(new File(folder, "copy.jpg"), new byte[] { 1, 2, 3, 4 });
+		File other = writeFile(new File(folder, "other.jpg"), new byte[] { 1, 2, 3, 5 });
+		File larger = writeFile(new File(folder, "larger.jpg"), new byte[] { 1, 2, 3, 4, 5 });
+
+		OutputDocument output = new OutputDocument(null, null, true);
+		PdfIndirectReference ref = new PRIndirectReference(null, 5);
+		output.imageWritten(ImageDigest.of(new ImageSource(a.getPath()), 0), ref);
+
+		//Different size or frame: no match (the files are not read)
+		assertNull(output.findImage(ImageDigest.of(new ImageSource(larger.getPath()), 0)));
+		assertNull(output.findImage(ImageDigest.of(new ImageSource(a.getPath()), 1)));
+		//Same file: match without reading the file
+		ImageDigest same = ImageDigest.of(new ImageSource(a.getPath()), 0);
+		a.delete();
+		assertEquals(ref, output.findImage(same));
+		writeFile(a, new byte[] { 1, 2, 3, 4 });
+		//Same size: compared by content
+		assertEquals(ref, output.findImage(ImageDigest.of(new ImageSource(copy.getPath()), 0)));
+		assertEquals(ref, output.findImage(ImageDigest.of(new ImageSource(new byte[] { 1, 2, 3, 4 }), 0)));
+		assertNull(output.findImage(ImageDigest.of(new ImageSource(other.getPath()), 0)));
+
+		//Image data in memory is hashed when kept
+		output = new OutputDocument(null, null, true);
+		byte[] data = new byte[] { 1, 2, 3, 4 };
+		output.imageWritten(ImageDigest.of(new ImageSource(data), 0), ref);
+		data[3] = 9;
+		assertEquals(ref, output.findImage(ImageDigest.of(new ImageSource(copy.getPath()), 0)));
+		assertFalse(new OutputDocument(null, null, false).isDeduplicating());
+	}
+
+	@Test
+	public void testLargeDocumentImageCache() throws Exception {
+		File xmlFolder = createTempFolder();
+		String page = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\">"
+				+ "<Page imageWidth=\"40\" imageHeight=\"60\"></Page></PcGts>";
+		File xml = writeFile(new File(xmlFolder, "page.xml"), page.getBytes("UTF-8"));
+		Map<String, byte[]> images = new HashMap<String, byte[]>();
+		for (String name : new String[] { "a", "b", "c" }) {
+			byte[] jpeg = createJpeg(new BufferedImage(40 + images.size(), 60, BufferedImage.TYPE_BYTE_GRAY), false);
+			writeFile(new File(xmlFolder, name + ".jpg"), jpeg);
+			images.put(name, jpeg);
+		}
+		//b is dropped when c is written (at most 2 images are remembered) and is written again
+		String[] pageImages = { "a", "b", "a", "c", "b" };
+		List<PageInput> inputs = new ArrayList<PageInput>();
+		for (String name : pageImages)
+			inputs.add(new PageInput(xml.getPath(), new File(xmlFolder, name + ".jpg").getPath()));
+
+		PageToPdfConverter converter = new PageToPdfConverter(null, false, false, false, false) {
+			@Override
+			int getImageCacheSize() {
+				return 2;
+			}
+		};
+		converter.setStreamingXmlReader(true);
+		converter.setImagePassthrough(true);
+		converter.setLargeDocumentMode(true);
+		File target = new File(xmlFolder, "doc.pdf");
+		assertEquals(5, converter.convert(inputs.iterator(), target.getPath()));
+
+		PdfReader reader = new PdfReader(target.getPath());
+		List<Integer> objectNumbers = new ArrayList<Integer>();
+		for (int i=0; i<pageImages.length; i++) {
+			PdfDictionary xObjects = reader.getPageN(i + 1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+			assertEquals(1, xObjects.size());
+			PdfIndirectReference ref = xObjects.getAsIndirectObject(xObjects.getKeys().iterator().next());
+			assertArrayEquals(images.get(pageImages[i]), PdfReader.getStreamBytesRaw((PRStream)PdfReader.getPdfObject(ref)));
+			objectNumbers.add(ref.getNumber());
+		}
+		reader.close();
+		assertEquals(objectNumbers.get(0), objectNumbers.get(2));
+		assertFalse(objectNumbers.get(1).equals(objectNumbers.get(4)));
+		assertEquals(4, new HashSet<Integer>(objectNumbers).size());
+
+		//Affects the output
+		String settings = converter.getSettingsDescription();
+		converter.setLargeDocumentMode(false);
+		assertFalse(settings.equals(converter.getSettingsDescription()));
+	}
+
+	@Test
+	public void testSplitOutput() throws Exception {
+		//In-memory images of 100 KB (estimated size 100 KB + page allowance)
+		List<PageInput> inputs = new ArrayList<PageInput>();
+		for (int i=0; i<10; i++)
+			inputs.add(new PageInput((Page)null, new byte[100 * 1024]));
+
+		//By page count
+		List<List<PageInput>> parts = new OutputSplitter(null, 4, 0, 0, 1).plan(inputs);
+		assertEquals(3, parts.size());
+		assertEquals(4, parts.get(0).size());
+		assertEquals(2, parts.get(2).size());
+
+		//By size (3 pages and the part allowance fit into 350 KB)
+		parts = new OutputSplitter(null, 0, 350 * 1024, 0, 1).plan(inputs);
+		assertEquals(4, parts.size());
+		assertEquals(3, parts.get(0).size());
+
+		//Page larger than the maximum size is a part of its own
+		parts = new OutputSplitter(null, 0, 50 * 1024, 0, 1).plan(inputs);
+		assertEquals(10, parts.size());
+
+		//Font in each part
+		File font = writeFile(new File(createTempFolder(), "font.ttf"), new byte[1600]);
+		assertEquals(1600 / OutputSplitter.FONT_SUBSET_DIVISOR, OutputSplitter.estimateFontSize(font.getPath(), FontEmbedding.SUBSET));
+		assertEquals(1600, OutputSplitter.estimateFontSize(font.getPath(), FontEmbedding.FULL));
+		assertEquals(0, OutputSplitter.estimateFontSize(font.getPath(), FontEmbedding.NONE));
+		assertEquals(0, OutputSplitter.estimateFontSize(null, FontEmbedding.SUBSET));
+
+		assertEquals("out/book_002.pdf", OutputSplitter.getPartFilename("out/book.pdf", 2));
+		assertEquals("out.d/book_010", OutputSplitter.getPartFilename("out.d/book", 10));
+		assertEquals(20L * 1024 * 1024, ConverterOptions.parseSize("20M"));
+		assertEquals(1536L, ConverterOptions.parseSize("1.5kb"));
+	}
+
+	@Test
+	public void testMergeIntoInputFolder() throws Exception {
+		File folder = createTempFolder();
+		for (String name : new String[] { "b.pdf", "a.pdf" }) {
+			Document document = new Document();
+			PdfWriter.getInstance(document, new FileOutputStream(new File(folder, name)));
+			document.open();
+			document.add(new Paragraph(name));
+			document.close();
+		}
+		File target = new File(folder, "all.pdf");
+
+		//The output is not an input, also when merging again
+		for (int run=0; run<2; run++) {
+			List<String> pdfFiles = CommandLineTool.collectPdfFiles(folder, new File(folder, "./all.pdf"));
+			assertEquals(Arrays.asList(new File(folder, "a.pdf").getPath(), new File(folder, "b.pdf").getPath()), pdfFiles);
+			assertEquals(2, new PdfMerger().merge(pdfFiles, target.getPath()));
+			PdfReader reader = new PdfReader(target.getPath());
+			assertEquals(2, reader.getNumberOfPages());
+			reader.close();
+			assertFalse(new File(folder, "all.pdf.part").exists());
+		}
+		try {
+			new PdfMerger().merge(Arrays.asList(target.getPath()), target.getPath());
+			fail();
+		} catch (IllegalArgumentException exc) {
+		}
+		assertTrue(target.length() > 0);
+	}
+
+	@Test
+	public void testCheckpointJournal() throws Exception {
+		File folder = createTempFolder();
+		File xml = writeFile(new File(folder, "p1.xml"), new byte[10]);
+		File target = writeFile(new File(folder, "doc.pdf"), new byte[100]);
+		List<PageInput> inputs = Arrays.asList(new PageInput(xml.getPath(), null));
+		String hash = CheckpointJournal.hash(inputs, "settings");
+		assertEquals(hash, CheckpointJournal.hash(inputs, "settings"));
+		assertFalse(hash.equals(CheckpointJournal.hash(inputs, "other settings")));
+
+		File journalFile = new File(folder, "journal.txt");
+		CheckpointJournal journal = new CheckpointJournal(journalFile);
+		assertFalse(journal.isDone(target, hash));
+		journal.failed(target, hash, 2, Arrays.asList(xml.getPath()));
+		assertEquals(2, journal.getFailedAttempts(target, hash));
+		journal.done(target, hash);
+		assertTrue(journal.isDone(target, hash));
+		assertEquals(0, journal.getFailedAttempts(target, hash));
+		journal.close();
+
+		//Reopened (last line is valid, interrupted line is ignored)
+		FileOutputStream out = new FileOutputStream(journalFile, true);
+		out.write("done\tdoc.pdf".getBytes("UTF-8"));
+		out.close();
+		journal = new CheckpointJournal(journalFile);
+		assertTrue(journal.isDone(target, hash));
+		//Truncated or missing output
+		writeFile(target, new byte[50]);
+		assertFalse(journal.isDone(target, hash));
+		target.delete();
+		assertFalse(journal.isDone(target, hash));
+		//Changed input
+		writeFile(xml, new byte[11]);
+		assertFalse(hash.equals(CheckpointJournal.hash(inputs, "settings")));
+		journal.close();
+	}
+
+	@Test
+	public void testLazyInputs() throws Exception {
+		File folder = createTempFolder();
+		for (int threads : new int[] { 1, 2 }) {
+			GeneratedPageConverter converter = new GeneratedPageConverter();
+			converter.setWorkerThreads(threads);
+			final CountingIterator<PageInput> inputs = new CountingIterator<PageInput>(generatedPages(1, 20).iterator());
+			final List<Integer> takenBeforePage = new ArrayList<Integer>();
+			converter.setConversionListener(new ConversionListener() {
+				@Override
+				public void pageConverted(PageStatistics statistics) {
+					takenBeforePage.add(inputs.taken);
+				}
+
+				@Override
+				public void pageFailed(String xmlFile, Throwable error) {
+				}
+			});
+			assertEquals(20, converter.convert(inputs, new File(folder, "doc" + threads + ".pdf").getPath()));
+			//Inputs are taken when they are needed (with worker threads: at most 2 per thread ahead)
+			assertEquals(20, takenBeforePage.size());
+			for (int page=1; page<=20; page++)
+				assertEquals(Math.min(20, threads == 1 ? page : page + 4), (int)takenBeforePage.get(page - 1));
+		}
+
+		//Folder of PAGE XML files from the command line (streaming reader)
+		File xmlFolder = createTempFolder();
+		File imageFolder = createTempFolder();
+		String page = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\">"
+				+ "<Page imageWidth=\"40\" imageHeight=\"60\"><TextRegion id=\"r1\"><Coords points=\"1,1 30,1 30,20 1,20\"/>"
+				+ "</TextRegion></Page></PcGts>";
+		for (String name : new String[] { "p1", "p2", "p3" }) {
+			writeFile(new File(xmlFolder, name + ".xml"), page.getBytes("UTF-8"));
+			ImageIO.write(new BufferedImage(40, 60, BufferedImage.TYPE_BYTE_GRAY), "png", new File(imageFolder, name + ".png"));
+		}
+		File target = new File(folder, "folder.pdf");
+		CommandLineTool.main(new String[] { "-xml", xmlFolder.getPath(), "-image", imageFolder.getPath(), "-pdf", target.getPath(),
+				"-xml-reader", "streaming", "-outlines", "r" });
+		PdfReader reader = new PdfReader(target.getPath());
+		assertEquals(3, reader.getNumberOfPages());
+		reader.close();
+	}
+
+	@Test
+	public void testStatisticsCsv() throws Exception {
+		File folder = createTempFolder();
+		String page = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\">"
+				+ "<Page imageWidth=\"40\" imageHeight=\"60\"><TextRegion id=\"r1\"><Coords points=\"1,1 30,1 30,20 1,20\"/>"
+				+ "<TextLine id=\"l1\"><Coords points=\"2,2 28,2 28,10 2,10\"/><TextEquiv><Unicode>Hello</Unicode></TextEquiv></TextLine>"
+				+ "</TextRegion></Page></PcGts>";
+		File xml = writeFile(new File(folder, "page,\"1\".xml"), page.getBytes("UTF-8"));
+		File image = new File(folder, "page.png");
+		ImageIO.write(new BufferedImage(40, 60, BufferedImage.TYPE_BYTE_GRAY), "png", image);
+		File missing = new File(folder, "missing.xml");
+
+		PageToPdfConverter converter = new PageToPdfConverter(LowLevelTextType.TextLine, true, false, false, false);
+		converter.setStreamingXmlReader(true);
+		File csv = new File(folder, "statistics.csv");
+		final StatisticsCsvWriter writer = new StatisticsCsvWriter(csv.getPath());
+		final List<String> calls = new ArrayList<String>();
+		converter.setConversionListener(new ConversionListener() {
+			@Override
+			public void pageConverted(PageStatistics statistics) {
+				calls.add("converted " + new File(statistics.getXmlFile()).getName() + " " + statistics.getPageNumber());
+				writer.pageConverted(statistics);
+			}
+
+			@Override
+			public void pageFailed(String xmlFile, Throwable error) {
+				calls.add("failed " + new File(xmlFile).getName());
+				writer.pageFailed(xmlFile, error);
+			}
+		});
+		List<PageInput> inputs = Arrays.asList(new PageInput(xml.getPath(), image.getPath()),
+				new PageInput(missing.getPath(), image.getPath()), new PageInput(xml.getPath(), image.getPath()));
+		assertEquals(2, converter.convert(inputs.iterator(), new File(folder, "doc.pdf").getPath()));
+		writer.close();
+
+		//Callbacks in page order, the failed page between the others
+		assertEquals(Arrays.asList("converted page,\"1\".xml 1", "failed missing.xml", "converted page,\"1\".xml 2"), calls);
+
+		//Header, two converted pages (quoted file names, 8 times, 4 counts, no error) and the failed page (only file and error)
+		String[] lines = new String(Files.readAllBytes(csv.toPath()), "UTF-8").split("\\r?\\n");
+		assertEquals(4, lines.length);
+		assertEquals("xml,image,page,xml_ms,image_ms,text_ms,region_outlines_ms,line_outlines_ms,word_outlines_ms,glyph_outlines_ms,"
+				+ "write_ms,total_ms,text_objects,glyphs,polygons,vertices,error", lines[0]);
+		String files = "\"" + xml.getPath().replace("\"", "\"\"") + "\",\"" + image.getPath() + "\",";
+		for (int pageNumber=1; pageNumber<=2; pageNumber++) {
+			String line = lines[pageNumber == 1 ? 1 : 3];
+			assertTrue(line, line.startsWith(files + pageNumber + ","));
+			String[] values = line.substring(files.length()).split(",", -1);
+			assertEquals(line, 15, values.length);
+			for (int i=1; i<=9; i++)
+				assertTrue(line, values[i].matches("\\d+\\.\\d{3}"));
+			assertEquals(Arrays.asList("1", "5", "1", "4", ""), Arrays.asList(values).subList(10, 15));
+		}
+		assertTrue(lines[2], lines[2].startsWith("\"" + missing.getPath() + "\",,,,,,,,,,,,,,,,\"java.io.FileNotFoundException: "
+				+ missing.getPath()));
+	}
+
+	@Test
+	public void testPreparationPipeline() throws Exception {
+		//Earlier pages take longer, so the workers finish them last
+		GeneratedPageConverter converter = new GeneratedPageConverter(7);
+		for (int page=1; page<=12; page++)
+			converter.setDelay(page, (12 - page) * 5);
+		final List<String> reported = new ArrayList<String>();
+		converter.setConversionListener(new ConversionListener() {
+			@Override
+			public void pageConverted(PageStatistics statistics) {
+			}
+
+			@Override
+			public void pageFailed(String xmlFile, Throwable error) {
+				reported.add(xmlFile);
+			}
+		});
+		CountingIterator<PageInput> inputs = new CountingIterator<PageInput>(generatedPages(1, 12).iterator());
+		List<String> failures = new ArrayList<String>();
+		PreparationPipeline pipeline = new PreparationPipeline(converter, inputs, 4, 2, failures);
+		try {
+			for (int page=1; page<=12; page++) {
+				assertTrue(pipeline.hasNext());
+				PreparedPage prepared = pipeline.next();
+				//In input order, at most 2 pages per thread ahead of the consumer
+				if (page == 7)
+					assertNull(prepared);
+				else
+					assertEquals("p" + page + ".xml", prepared.textItems.get(0).text);
+				assertEquals(Math.min(12, page + 8), inputs.taken);
+			}
+			assertFalse(pipeline.hasNext());
+		} finally {
+			pipeline.close();
+		}
+
+		//A failure on a worker thread is reported once, after all attempts
+		assertEquals(Arrays.asList("p7.xml"), failures);
+		assertEquals(Arrays.asList("p7.xml"), reported);
+		assertEquals(2, converter.getCalls("p7.xml"));
+		assertEquals(1, converter.getCalls("p8.xml"));
+	}
+
+	@Test
+	public void testPageAttempts() throws Exception {
+		//Every page fails once, page 2 always fails
+		GeneratedPageConverter converter = new GeneratedPageConverter(2);
+		converter.transientFailures = 1;
+		File target = new File(createTempFolder(), "doc.pdf");
+		List<String> failed = new ArrayList<String>();
+		assertEquals(2, converter.convert(generatedPages(1, 3).iterator(), target.getPath(), 3, failed));
+		assertEquals(Arrays.asList("p2.xml"), failed);
+		assertEquals(2, converter.getCalls("p1.xml"));
+		assertEquals(3, converter.getCalls("p2.xml"));
+		assertEquals(2, converter.getCalls("p3.xml"));
+	}
+
+	@Test
+	public void testConvertToStream() throws Exception {
+		File folder = createTempFolder();
+		String page = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\">"
+				+ "<Page imageWidth=\"40\" imageHeight=\"30\"></Page></PcGts>";
+		File xml = writeFile(new File(folder, "p1.xml"), page.getBytes("UTF-8"));
+		File image = writeFile(new File(folder, "p1.jpg"), createJpeg(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), false));
+		List<PageInput> inputs = Arrays.asList(new PageInput(xml.getPath(), image.getPath()));
+		PageToPdfConverter converter = new PageToPdfConverter(null, false, false, false, false);
+		converter.setStreamingXmlReader(true);
+
+		//Output stream: not closed, the caller can continue writing
+		final boolean[] closed = new boolean[1];
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				closed[0] = true;
+			}
+		};
+		assertEquals(1, converter.convert(inputs.iterator(), out));
+		assertFalse(closed[0]);
+		int pdfLength = out.size();
+		out.write(new byte[] { '\n' });
+		PdfReader reader = new PdfReader(Arrays.copyOf(out.toByteArray(), pdfLength));
+		assertEquals(1, reader.getNumberOfPages());
+		reader.close();
+
+		//Nothing written without pages
+		out.reset();
+		assertEquals(0, converter.convert(new ArrayList<PageInput>().iterator(), out));
+		assertEquals(0, out.size());
+
+		//Channel: not closed
+		File target = new File(folder, "doc.pdf");
+		FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			assertEquals(1, converter.convert(inputs.iterator(), channel));
+			assertTrue(channel.isOpen());
+			assertEquals(pdfLength, channel.size());
+		} finally {
+			channel.close();
+		}
+		reader = new PdfReader(target.getPath());
+		assertEquals(1, reader.getNumberOfPages());
+		reader.close();
+	}
+
+	@Test
+	public void testFolderWatcherQuietPeriod() throws Exception {
+		File folder = createTempFolder();
+		File outputFolder = createTempFolder();
+		FolderWatcher watcher = new FolderWatcher(null, 1);
+		watcher.setQuietPeriod(1000);
+
+		//XML without image: dropped until the image arrives
+		File xml = writeFile(new File(folder, "p1.xml"), new byte[10]);
+		watcher.changed("p1.xml", true, true, 0);
+		assertTrue(watcher.takeCompletePages(folder, folder, outputFolder, 2000).isEmpty());
+		File image = writeFile(new File(folder, "p1.png"), new byte[20]);
+		watcher.changed("p1.png", true, true, 3000);
+		watcher.changed("notes.txt", true, true, 3000);
+
+		//Within the quiet period, then the file state is recorded
+		assertTrue(watcher.takeCompletePages(folder, folder, outputFolder, 3500).isEmpty());
+		assertTrue(watcher.takeCompletePages(folder, folder, outputFolder, 4000).isEmpty());
+		//Changed without an event (still being written): the quiet period starts again
+		writeFile(image, new byte[30]);
+		assertTrue(watcher.takeCompletePages(folder, folder, outputFolder, 5000).isEmpty());
+		assertTrue(watcher.takeCompletePages(folder, folder, outputFolder, 5999).isEmpty());
+		List<FolderWatcher.PendingPage> complete = watcher.takeCompletePages(folder, folder, outputFolder, 6000);
+		assertEquals(1, complete.size());
+		assertEquals("p1", complete.get(0).name);
+		assertEquals(xml, complete.get(0).xml);
+		assertEquals(image, complete.get(0).image);
+		assertEquals(new File(outputFolder, "p1.pdf"), complete.get(0).target);
+		assertTrue(watcher.takeCompletePages(folder, folder, outputFolder, 10000).isEmpty());
+
+		//Up to date: skipped
+		File target = writeFile(complete.get(0).target, new byte[100]);
+		target.setLastModified(Math.max(xml.lastModified(), image.lastModified()) + 10000);
+		watcher.changed("p1.xml", true, true, 20000);
+		assertTrue(watcher.takeCompletePages(folder, folder, outputFolder, 21000).isEmpty());
+		assertTrue(watcher.takeCompletePages(folder, folder, outputFolder, 22000).isEmpty());
+	}
+
+	@Test
+	public void testAppend() throws Exception {
+		PageToPdfConverter converter = new GeneratedPageConverter();
+		File target = new File(createTempFolder(), "doc.pdf");
+		assertEquals(3, converter.convert(generatedPages(1, 3).iterator(), target.getPath()));
+		byte[] original = Files.readAllBytes(target.toPath());
+
+		//The original bytes are kept, the update is added to the end
+		assertEquals(2, converter.append(generatedPages(4, 5).iterator(), target.getPath()));
+		byte[] appended = Files.readAllBytes(target.toPath());
+		assertTrue(appended.length > original.length);
+		assertArrayEquals(original, Arrays.copyOf(appended, original.length));
+		PdfReader reader = new PdfReader(target.getPath());
+		assertEquals(5, reader.getNumberOfPages());
+		assertFalse(reader.isRebuilt());
+		reader.close();
+
+		//A failed update is removed again
+		converter.setConversionListener(new ConversionListener() {
+			@Override
+			public void pageConverted(PageStatistics statistics) {
+				throw new IllegalStateException("Write error");
+			}
+
+			@Override
+			public void pageFailed(String xmlFile, Throwable error) {
+			}
+		});
+		assertEquals(0, converter.append(generatedPages(6, 6).iterator(), target.getPath()));
+		assertArrayEquals(appended, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void testOutlineLayers() throws Exception {
+		GeneratedPageConverter converter = new GeneratedPageConverter();
+		converter.outlines = true;
+		File target = new File(createTempFolder(), "doc.pdf");
+		assertEquals(2, converter.convert(generatedPages(1, 2).iterator(), target.getPath()));
+
+		PdfReader reader = new PdfReader(target.getPath());
+		List<Integer> layers = getOutlineLayers(reader, "Region outlines", "Word outlines");
+		for (int page=1; page<=2; page++) {
+			//One marked content sequence per layer, one path per colour
+			List<String> operators = Arrays.asList(new String(reader.getPageContent(page), "ISO-8859-1").split("\\s+"));
+			assertEquals(2, Collections.frequency(operators, "BDC"));
+			assertEquals(2, Collections.frequency(operators, "EMC"));
+			assertEquals(3, Collections.frequency(operators, "RG"));
+			assertEquals(3, Collections.frequency(operators, "S"));
+			assertEquals(4, Collections.frequency(operators, "m"));
+			assertEquals(layers, getLayerProperties(reader, page));
+		}
+		reader.close();
+
+		//Appended pages use the existing layers
+		assertEquals(1, converter.append(generatedPages(3, 3).iterator(), target.getPath()));
+		reader = new PdfReader(target.getPath());
+		assertEquals(layers, getOutlineLayers(reader, "Region outlines", "Word outlines"));
+		assertEquals(layers, getLayerProperties(reader, 3));
+		reader.close();
+	}
+
+	@Test
+	public void testAppendWithOutputIntent() throws Exception {
+		//The stamper reads the colour profile of the output intent when it is created
+		byte[] profile = java.awt.color.ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData();
+		File target = new File(createTempFolder(), "doc.pdf");
+		Document document = new Document();
+		PdfWriter writer = PdfWriter.getInstance(document, new FileOutputStream(target));
+		document.open();
+		writer.setOutputIntents("Custom", "", "http://www.color.org", "sRGB IEC61966-2.1", ICC_Profile.getInstance(profile));
+		document.add(new Paragraph("Page 1"));
+		document.close();
+
+		assertEquals(1, new GeneratedPageConverter().append(generatedPages(2, 2).iterator(), target.getPath()));
+		PdfReader reader = new PdfReader(target.getPath());
+		assertEquals(2, reader.getNumberOfPages());
+		PdfDictionary outputIntent = reader.getCatalog().getAsArray(PdfName.OUTPUTINTENTS).getAsDict(0);
+		PRStream destOutputProfile = (PRStream)PdfReader.getPdfObject(outputIntent.get(PdfName.DESTOUTPUTPROFILE));
+		assertArrayEquals(profile, PdfReader.getStreamBytes(destOutputProfile));
+		reader.close();
+	}
+
+	@Test
+	public void testJpegPassthrough() throws Exception {
+		BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+		for (boolean progressive : new boolean[] { false, true }) {
+			byte[] jpeg = createJpeg(image, progressive);
+			assertEquals(progressive, indexOf(jpeg, new byte[] { (byte)0xFF, (byte)0xC2 }) >= 0);
+			ImagePassthrough passthrough = ImagePassthrough.probe(new ImageSource(jpeg), 0);
+			assertNotNull(passthrough);
+			assertEquals(40, passthrough.getWidth());
+			assertEquals(30, passthrough.getHeight());
+
+			PRStream stream = writePassthroughImage(passthrough);
+			assertEquals(PdfName.DCTDECODE, stream.getAsName(PdfName.FILTER));
+			assertEquals(8, stream.getAsNumber(PdfName.BITSPERCOMPONENT).intValue());
+			assertEquals(PdfName.DEVICERGB, stream.getAsName(PdfName.COLORSPACE));
+			assertArrayEquals(jpeg, PdfReader.getStreamBytesRaw(stream));
+		}
+
+		//CMYK (with and without Adobe marker)
+		assertNull(ImagePassthrough.probe(new ImageSource(createAdobeJpeg(0)), 0));
+		assertNull(ImagePassthrough.probe(new ImageSource(createAdobeJpeg(-1)), 0));
+
+		//Frame header types: only Huffman coded DCT (SOF0 to SOF2)
+		byte[] jpeg = createJpeg(image, false);
+		int sof = indexOf(jpeg, new byte[] { (byte)0xFF, (byte)0xC0 });
+		for (int type=0xC1; type<=0xCF; type++) {
+			if (type == 0xC4 || type == 0xC8 || type == 0xCC)
+				continue;
+			byte[] header = jpeg.clone();
+			header[sof + 1] = (byte)type;
+			assertEquals(Integer.toHexString(type), type <= 0xC2, ImagePassthrough.probe(new ImageSource(header), 0) != null);
+		}
+	}
+
+	@Test
+	public void testTiffPassthrough() throws Exception {
+		int[] widths = { 64, 40, 24 };
+		int[] heights = { 16, 20, 8 };
+		List<byte[]> strips = new ArrayList<byte[]>();
+		byte[] tiff = createG4Tiff(widths, heights, 1, strips);
+
+		//Frame 2 of 3
+		ImagePassthrough passthrough = ImagePassthrough.probe(new ImageSource(tiff), 2);
+		assertNotNull(passthrough);
+		assertTrue(passthrough.isBitonal());
+		PRStream stream = writePassthroughImage(passthrough);
+		assertEquals(PdfName.CCITTFAXDECODE, stream.getAsName(PdfName.FILTER));
+		assertEquals(1, stream.getAsNumber(PdfName.BITSPERCOMPONENT).intValue());
+		PdfDictionary decodeParms = stream.getAsDict(PdfName.DECODEPARMS);
+		assertEquals(-1, decodeParms.getAsNumber(PdfName.K).intValue());
+		assertEquals(24, decodeParms.getAsNumber(PdfName.COLUMNS).intValue());
+		assertEquals(8, decodeParms.getAsNumber(PdfName.ROWS).intValue());
+		assertArrayEquals(strips.get(2), PdfReader.getStreamBytesRaw(stream));
+		assertNull(ImagePassthrough.probe(new ImageSource(tiff), 3));
+
+		//Multiple strips
+		assertNotNull(ImagePassthrough.probe(new ImageSource(createG4Tiff(new int[] { 64 }, new int[] { 16 }, 1, strips)), 0));
+		assertNull(ImagePassthrough.probe(new ImageSource(createG4Tiff(new int[] { 64 }, new int[] { 16 }, 2, strips)), 0));
+	}
+
+	@Test
+	public void testMultiPageTiffInputs() throws Exception {
+		File xmlFolder = createTempFolder();
+		String page = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\">"
+				+ "<Page imageWidth=\"64\" imageHeight=\"16\"></Page></PcGts>";
+		for (String name : new String[] { "c.xml", "a.xml", "b.xml" })
+			writeFile(new File(xmlFolder, name), page.getBytes("UTF-8"));
+		List<byte[]> strips = new ArrayList<byte[]>();
+		File tiff = writeFile(new File(createTempFolder(), "doc.tif"), createG4Tiff(new int[] { 64, 40, 24 }, new int[] { 16, 20, 8 }, 1, strips));
+
+		//Frame N for the Nth XML file
+		List<PageInput> inputs = CommandLineTool.collectInputs(xmlFolder, tiff.getPath());
+		assertEquals(3, inputs.size());
+		for (int i=0; i<3; i++) {
+			assertEquals(new File(xmlFolder, "abc".charAt(i) + ".xml").getAbsolutePath(), inputs.get(i).getXmlFile());
+			assertEquals(tiff.getPath(), inputs.get(i).getImageFile());
+			assertEquals(i, inputs.get(i).getImageFrame());
+		}
+
+		//Frame map (XML files without a frame are left out)
+		File mapFile = writeFile(new File(xmlFolder, "frames.txt"), "# XML file and frame\nc.xml 0\n\na.xml\t2\n".getBytes("UTF-8"));
+		Map<String, Integer> frameMap = CommandLineTool.readFrameMap(mapFile);
+		assertEquals(2, frameMap.size());
+		assertEquals(Integer.valueOf(2), frameMap.get("a.xml"));
+		assertEquals(Integer.valueOf(0), frameMap.get("c.xml"));
+		inputs = CommandLineTool.collectInputs(xmlFolder, tiff.getPath(), frameMap);
+		assertEquals(2, inputs.size());
+		assertEquals(new File(xmlFolder, "a.xml").getAbsolutePath(), inputs.get(0).getXmlFile());
+		assertEquals(2, inputs.get(0).getImageFrame());
+		assertEquals(0, inputs.get(1).getImageFrame());
+
+		//Each page gets the data of its frame
+		PageToPdfConverter converter = new PageToPdfConverter(null, false, false, false, false);
+		converter.setStreamingXmlReader(true);
+		converter.setImagePassthrough(true);
+		File target = new File(xmlFolder, "doc.pdf");
+		assertEquals(2, converter.convert(inputs.iterator(), target.getPath()));
+		PdfReader reader = new PdfReader(target.getPath());
+		int[] frames = { 2, 0 };
+		for (int i=0; i<frames.length; i++) {
+			PdfDictionary xObjects = reader.getPageN(i + 1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+			PRStream stream = (PRStream)PdfReader.getPdfObject(xObjects.get(xObjects.getKeys().iterator().next()));
+			assertArrayEquals(strips.get(frames[i]), PdfReader.getStreamBytesRaw(stream));
+		}
+		reader.close();
+	}
+
+	@Test
+	public void testRecompressUndecodableJpeg() throws Exception {
+		//4 channel JPEG with an Adobe marker (transform 1) that ImageIO cannot decode
+		byte[] jpeg = createAdobeJpeg(1);
+
+		assertNull(new ImageRecompressor(ImageProfile.SCREEN).recompress(new ImageSource(jpeg), 0));
+
+		//The page keeps the original image
+		PageToPdfConverter converter = new PageToPdfConverter(null, false, false, false, false);
+		converter.setImageProfile(ImageProfile.SCREEN);
+		PreparedPage prepared = new PreparedPage(32, 24);
+		converter.addImage(new ImageSource(jpeg), 0, prepared);
+		assertNotNull(prepared.image);
+		assertEquals(Image.JPEG, prepared.image.type());
+		assertEquals(4, prepared.image.getColorspace());
+	}
+
+	@Test
+	public void testBatchQuarantine() throws Exception {
+		File xmlFolder = createTempFolder();
+		File imageFolder = createTempFolder();
+		File outputFolder = createTempFolder();
+		File docXml = new File(xmlFolder, "doc");
+		File docImages = new File(imageFolder, "doc");
+		docXml.mkdir();
+		docImages.mkdir();
+		String page = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\">"
+				+ "<Page imageWidth=\"40\" imageHeight=\"60\"><TextRegion id=\"r1\"><Coords points=\"1,1 30,1 30,20 1,20\"/>"
+				+ "</TextRegion></Page></PcGts>";
+		for (String name : new String[] { "p1", "p2" }) {
+			writeFile(new File(docXml, name + ".xml"), (name.equals("p2") ? "<PcGts/>" : page).getBytes("UTF-8"));
+			File image = new File(docImages, name + ".png");
+			ImageIO.write(new BufferedImage(40, 60, BufferedImage.TYPE_BYTE_GRAY), "png", image);
+		}
+		File journal = new File(outputFolder, "journal.txt");
+		File target = new File(outputFolder, "doc.pdf");
+		File incomplete = BatchConverter.getIncompleteFile(target);
+
+		PageToPdfConverter converter = new PageToPdfConverter(null, true, false, false, false);
+		converter.setStreamingXmlReader(true);
+		final List<String> reported = new ArrayList<String>();
+		ConversionListener listener = new ConversionListener() {
+			@Override
+			public void pageConverted(PageStatistics statistics) {
+			}
+
+			@Override
+			public void pageFailed(String xmlFile, Throwable error) {
+				reported.add(new File(xmlFile).getName());
+			}
+		};
+		converter.setConversionListener(listener);
+		BatchConverter batch = new BatchConverter(converter, 1);
+		batch.setJournal(journal);
+
+		//Page 2 fails: quarantined
+		batch.convertFolders(xmlFolder, imageFolder.getPath(), outputFolder);
+		assertEquals(1, batch.getFailedCount());
+		assertFalse(target.exists());
+		assertTrue(incomplete.exists());
+		//The listener of the converter is notified and not replaced
+		assertEquals(Arrays.asList("p2.xml"), reported);
+		assertSame(listener, converter.getConversionListener());
+
+		//Skipped until the inputs change
+		batch.convertFolders(xmlFolder, imageFolder.getPath(), outputFolder);
+		assertEquals(1, batch.getSkippedCount());
+
+		//Fixed: converted, quarantined output removed
+		writeFile(new File(docXml, "p2.xml"), page.getBytes("UTF-8"));
+		batch.convertFolders(xmlFolder, imageFolder.getPath(), outputFolder);
+		assertEquals(0, batch.getFailedCount());
+		assertEquals(2, batch.getPageCount());
+		assertTrue(target.exists());
+		assertFalse(incomplete.exists());
+
+		//Up to date
+		batch.convertFolders(xmlFolder, imageFolder.getPath(), outputFolder);
+		assertEquals(1, batch.getSkippedCount());
+		assertEquals(0, batch.getDocumentCount());
+	}
+
+	/**
+	 * Writes the image to a PDF and returns the image XObject read back from the PDF
+	 */
+	private static PRStream writePassthroughImage(ImagePassthrough passthrough) throws Exception {
+		ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+		Document document = new Document(new Rectangle(passthrough.getWidth(), passthrough.getHeight()));
+		PdfWriter writer = PdfWriter.getInstance(document, pdf);
+		document.open();
+		Image img = passthrough.writeImage(writer);
+		writer.getDirectContent().addImage(img, passthrough.getWidth(), 0, 0, passthrough.getHeight(), 0, 0);
+		document.close();
+
+		PdfReader reader = new PdfReader(pdf.toByteArray());
+		PdfDictionary xObjects = reader.getPageN(1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+		assertEquals(1, xObjects.size());
+		return (PRStream)PdfReader.getPdfObject(xObjects.get(xObjects.getKeys().iterator().next()));
+	}
+
+	private static byte[] createJpeg(BufferedImage image, boolean progressive) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (progressive)
+				param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			out.close();
+			writer.dispose();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Creates a 4 channel JPEG with an Adobe (APP14) marker
+	 * @param transform Colour transform of the marker (0 = CMYK, 1 = YCC, 2 = YCCK), -1 for no marker
+	 */
+	private static byte[] createAdobeJpeg(int transform) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+		try {
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 32, 24, 4, null), null, null), null);
+		} finally {
+			out.close();
+			writer.dispose();
+		}
+		byte[] encoded = bytes.toByteArray();
+		if (transform < 0)
+			return encoded;
+		bytes.reset();
+		bytes.write(encoded, 0, 2);
+		bytes.write(new byte[] { (byte)0xFF, (byte)0xEE, 0, 14, 'A', 'd', 'o', 'b', 'e', 0, 100, 0, 0, 0, 0, (byte)transform });
+		bytes.write(encoded, 2, encoded.length - 2);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Creates a little-endian multi-page TIFF with CCITT G4 compressed frames
+	 * @param stripsPerFrame Number of strips (each strip is compressed separately)
+	 * @param strips Receives the compressed data of the frames (single strip only)
+	 */
+	private static byte[] createG4Tiff(int[] widths, int[] heights, int stripsPerFrame, List<byte[]> strips) {
+		strips.clear();
+		ByteBuffer tiff = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		tiff.put((byte)'I').put((byte)'I').putShort((short)42);
+		int nextIfdPointer = tiff.position();
+		tiff.putInt(0);
+		for (int f=0; f<widths.length; f++) {
+			int width = widths[f];
+			int height = heights[f];
+			int stride = (width + 7) / 8;
+			int rowsPerStrip = (height + stripsPerFrame - 1) / stripsPerFrame;
+			int[] offsets = new int[stripsPerFrame];
+			int[] lengths = new int[stripsPerFrame];
+			for (int s=0; s<stripsPerFrame; s++) {
+				int rows = Math.min(rowsPerStrip, height - s * rowsPerStrip);
+				byte[] data = new byte[stride * rows];
+				for (int y=0; y<rows; y++)
+					data[y * stride + (y + f) % stride] = (byte)0xF0;
+				byte[] g4 = CCITTG4Encoder.compress(data, width, rows);
+				offsets[s] = tiff.position();
+				lengths[s] = g4.length;
+				tiff.put(g4);
+				if (stripsPerFrame == 1)
+					strips.add(g4);
+			}
+			int arrays = tiff.position();
+			for (int offset : offsets)
+				tiff.putInt(offset);
+			for (int length : lengths)
+				tiff.putInt(length);
+
+			//Image directory (tags in ascending order)
+			tiff.putInt(nextIfdPointer, tiff.position());
+			tiff.putShort((short)9);
+			putTiffEntry(tiff, 256, 4, 1, width);
+			putTiffEntry(tiff, 257, 4, 1, height);
+			putTiffEntry(tiff, 258, 3, 1, 1);
+			putTiffEntry(tiff, 259, 3, 1, 4);
+			putTiffEntry(tiff, 262, 3, 1, 0);
+			putTiffEntry(tiff, 273, 4, stripsPerFrame, stripsPerFrame == 1 ? offsets[0] : arrays);
+			putTiffEntry(tiff, 277, 3, 1, 1);
+			putTiffEntry(tiff, 278, 4, 1, rowsPerStrip);
+			putTiffEntry(tiff, 279, 4, stripsPerFrame, stripsPerFrame == 1 ? lengths[0] : arrays + 4 * stripsPerFrame);
+			nextIfdPointer = tiff.position();
+			tiff.putInt(0);
+		}
+		return Arrays.copyOf(tiff.array(), tiff.position());
+	}
+
+	private static void putTiffEntry(ByteBuffer tiff, int tag, int type, int count, int value) {
+		tiff.putShort((short)tag).putShort((short)type).putInt(count);
+		if (type == 3)
+			tiff.putShort((short)value).putShort((short)0);
+		else
+			tiff.putInt(value);
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern) {
+		for (int i=0; i + pattern.length <= data.length; i++) {
+			if (Arrays.equals(pattern, Arrays.copyOfRange(data, i, i + pattern.length)))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a TrueType font of the JRE or of the system (the test is skipped if there is none)
+	 */
+	private static String findTrueTypeFont() {
+		String[] candidates = {
+				System.getProperty("java.home") + File.separator + "lib" + File.separator + "fonts" + File.separator + "LucidaSansRegular.ttf",
+				"/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf",
+				"/usr/share/fonts/TTF/DejaVuSans.ttf",
+				"/Library/Fonts/Arial.ttf",
+				"C:\\Windows\\Fonts\\arial.ttf" };
+		for (String candidate : candidates) {
+			if (new File(candidate).isFile())
+				return candidate;
+		}
+		Assume.assumeTrue("No TrueType font found", false);
+		return null;
+	}
+
+	/**
+	 * Checks the names of the optional content groups of the document (iText writes them in no particular order)
+	 * @return Object numbers of the groups in the order of the given names
+	 */
+	private static List<Integer> getOutlineLayers(PdfReader reader, String... names) {
+		PdfArray groups = reader.getCatalog().getAsDict(PdfName.OCPROPERTIES).getAsArray(PdfName.OCGS);
+		Map<String, Integer> objectNumbers = new HashMap<String, Integer>();
+		for (int i=0; i<groups.size(); i++)
+			objectNumbers.put(groups.getAsDict(i).getAsString(PdfName.NAME).toUnicodeString(), groups.getAsIndirectObject(i).getNumber());
+		assertEquals(new HashSet<String>(Arrays.asList(names)), objectNumbers.keySet());
+		assertEquals(names.length, groups.size());
+		List<Integer> ordered = new ArrayList<Integer>();
+		for (String name : names)
+			ordered.add(objectNumbers.get(name));
+		return ordered;
+	}
+
+	/**
+	 * Object numbers of the optional content groups used on the given page (sorted by resource name)
+	 */
+	private static List<Integer> getLayerProperties(PdfReader reader, int page) {
+		PdfDictionary properties = reader.getPageN(page).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.PROPERTIES);
+		List<PdfName> keys = new ArrayList<PdfName>(properties.getKeys());
+		Collections.sort(keys);
+		List<Integer> objectNumbers = new ArrayList<Integer>();
+		for (PdfName key : keys)
+			objectNumbers.add(properties.getAsIndirectObject(key).getNumber());
+		return objectNumbers;
+	}
+
+	/**
+	 * Iterator that counts the elements taken
+	 */
+	private static class CountingIterator<T> implements Iterator<T> {
+		private Iterator<T> iterator;
+		int taken = 0;
+
+		CountingIterator(Iterator<T> iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public T next() {
+			taken++;
+			return iterator.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Inputs for the pages with the given numbers (p1.xml for page 1), see <code>GeneratedPageConverter</code>
+	 */
+	private static List<PageInput> generatedPages(int first, int last) {
+		List<PageInput> inputs = new ArrayList<PageInput>();
+		for (int i=first; i<=last; i++)
+			inputs.add(new PageInput("p" + i + ".xml", null));
+		return inputs;
+	}
+
+	/**
+	 * Converter with generated pages (no files are read): each page has its XML filename as text.
+	 * The pages with the given numbers always fail, all pages fail <code>transientFailures</code> times first.
+	 * Pages can be delayed to simulate slow inputs. With <code>outlines</code>, each page has region outlines in red
+	 * (two polygons) and blue and word outlines in green.
+	 */
+	static class GeneratedPageConverter extends PageToPdfConverter {
+		int transientFailures = 0;
+		boolean outlines = false;
+		private Set<String> failingPages = new HashSet<String>();
+		private Map<String, Integer> calls = new HashMap<String, Integer>();
+		private Map<String, Long> delays = new HashMap<String, Long>();
+
+		GeneratedPageConverter(int... failingPages) {
+			super(null, false, false, false, false);
+			for (int page : failingPages)
+				this.failingPages.add("p" + page + ".xml");
+		}
+
+		@Override
+		PreparedPage preparePage(PageInput input) throws Exception {
+			String xmlFile = input.getXmlFile();
+			int count;
+			synchronized (calls) {
+				count = getCalls(xmlFile) + 1;
+				calls.put(xmlFile, count);
+			}
+			Long delay = delays.get(xmlFile);
+			if (delay != null)
+				Thread.sleep(delay);
+			if (count <= transientFailures || failingPages.contains(xmlFile))
+				throw new IOException("Read error: " + xmlFile);
+			PreparedPage prepared = new PreparedPage(200, 100);
+			prepared.textItems.add(new PreparedPage.TextItem(xmlFile, 10, 50, 12));
+			if (outlines) {
+				PreparedPage.OutlineGroup red = new PreparedPage.OutlineGroup(OutputDocument.REGION_OUTLINES, BaseColor.RED);
+				red.polygons.add(new float[] { 10, 10, 90, 10, 90, 40, 10, 40 });
+				red.polygons.add(new float[] { 110, 10, 190, 10, 190, 40, 110, 40 });
+				PreparedPage.OutlineGroup blue = new PreparedPage.OutlineGroup(OutputDocument.REGION_OUTLINES, BaseColor.BLUE);
+				blue.polygons.add(new float[] { 10, 60, 190, 60, 190, 90 });
+				PreparedPage.OutlineGroup green = new PreparedPage.OutlineGroup(OutputDocument.WORD_OUTLINES, BaseColor.GREEN);
+				green.polygons.add(new float[] { 12, 12, 50, 12, 50, 30, 12, 30 });
+				prepared.outlines.addAll(Arrays.asList(red, blue, green));
+			}
+			return prepared;
+		}
+
+		/**
+		 * Delays the preparation of the given page
+		 */
+		void setDelay(int page, long millis) {
+			delays.put("p" + page + ".xml", millis);
+		}
+
+		/**
+		 * Number of times the given page has been prepared
+		 */
+		int getCalls(String xmlFile) {
+			synchronized (calls) {
+				Integer count = calls.get(xmlFile);
+				return count != null ? count : 0;
+			}
+		}
+	}
+
+	private File createTempFolder() throws IOException {
+		return temporaryFolder.newFolder();
+	}
+
+	private static File writeFile(File file, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Previous font fitting (reduce the size until the text fits)
+	 */
+	private static float fitFontSizeIteratively(BaseFont font, String text, int width) {
+		float sw = font.getWidth(text);
+		float fontSizeX = width * 1000.0f / (sw * 0.865f);
+		Chunk chunk = new Chunk(text, new Font(font, fontSizeX));
+		while (chunk.getWidthPoint() > width) {
+			fontSizeX -= 0.5f;
+			chunk = new Chunk(text, new Font(font, fontSizeX));
+		}
+		return fontSizeX;
+	}
 }